@@ -37,7 +37,10 @@ import android.graphics.drawable.StateListDrawable;
 import android.graphics.drawable.VectorDrawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.TypedValue;
 import android.util.Xml;
@@ -49,17 +52,34 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.xmlpull.v1.XmlPullParser;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 public class ExtractStyle {
@@ -110,11 +130,82 @@ public class ExtractStyle {
     final int[] PRESSED_ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET = stateSetUnion(PRESSED_ENABLED_FOCUSED_STATE_SET, WINDOW_FOCUSED_STATE_SET);
     final int[] PRESSED_ENABLED_FOCUSED_SELECTED_STATE_SET = stateSetUnion(PRESSED_ENABLED_FOCUSED_STATE_SET, SELECTED_STATE_SET);
     final int[] PRESSED_ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET = stateSetUnion(PRESSED_ENABLED_FOCUSED_SELECTED_STATE_SET, WINDOW_FOCUSED_STATE_SET);
+    // The state sets of an encoded color state list, in order
+    final int[][] COLOR_STATE_SETS = {
+            EMPTY_STATE_SET,
+            WINDOW_FOCUSED_STATE_SET,
+            SELECTED_STATE_SET,
+            SELECTED_WINDOW_FOCUSED_STATE_SET,
+            FOCUSED_STATE_SET,
+            FOCUSED_WINDOW_FOCUSED_STATE_SET,
+            FOCUSED_SELECTED_STATE_SET,
+            FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET,
+            ENABLED_STATE_SET,
+            ENABLED_WINDOW_FOCUSED_STATE_SET,
+            ENABLED_SELECTED_STATE_SET,
+            ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET,
+            ENABLED_FOCUSED_STATE_SET,
+            ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET,
+            ENABLED_FOCUSED_SELECTED_STATE_SET,
+            ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_STATE_SET,
+            PRESSED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_SELECTED_STATE_SET,
+            PRESSED_SELECTED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_FOCUSED_STATE_SET,
+            PRESSED_FOCUSED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_FOCUSED_SELECTED_STATE_SET,
+            PRESSED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_ENABLED_STATE_SET,
+            PRESSED_ENABLED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_ENABLED_SELECTED_STATE_SET,
+            PRESSED_ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_ENABLED_FOCUSED_STATE_SET,
+            PRESSED_ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET,
+            PRESSED_ENABLED_FOCUSED_SELECTED_STATE_SET,
+            PRESSED_ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET
+    };
+    static final String[] COLOR_STATE_SET_NAMES = {
+            "EMPTY_STATE_SET",
+            "WINDOW_FOCUSED_STATE_SET",
+            "SELECTED_STATE_SET",
+            "SELECTED_WINDOW_FOCUSED_STATE_SET",
+            "FOCUSED_STATE_SET",
+            "FOCUSED_WINDOW_FOCUSED_STATE_SET",
+            "FOCUSED_SELECTED_STATE_SET",
+            "FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET",
+            "ENABLED_STATE_SET",
+            "ENABLED_WINDOW_FOCUSED_STATE_SET",
+            "ENABLED_SELECTED_STATE_SET",
+            "ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET",
+            "ENABLED_FOCUSED_STATE_SET",
+            "ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET",
+            "ENABLED_FOCUSED_SELECTED_STATE_SET",
+            "ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_STATE_SET",
+            "PRESSED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_SELECTED_STATE_SET",
+            "PRESSED_SELECTED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_FOCUSED_STATE_SET",
+            "PRESSED_FOCUSED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_FOCUSED_SELECTED_STATE_SET",
+            "PRESSED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_ENABLED_STATE_SET",
+            "PRESSED_ENABLED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_ENABLED_SELECTED_STATE_SET",
+            "PRESSED_ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_ENABLED_FOCUSED_STATE_SET",
+            "PRESSED_ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET",
+            "PRESSED_ENABLED_FOCUSED_SELECTED_STATE_SET",
+            "PRESSED_ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET"
+    };
     final Resources.Theme m_theme;
     final String m_extractPath;
     final int defaultBackgroundColor;
     final int defaultTextColor;
     final boolean m_minimal;
+    final StyleImageEncoder m_imageEncoder = new StyleImageEncoder(m_imageFormat);
+    final String m_imagesPath;
     final int[] DrawableStates = { android.R.attr.state_active, android.R.attr.state_checked,
             android.R.attr.state_enabled, android.R.attr.state_focused,
             android.R.attr.state_pressed, android.R.attr.state_selected,
@@ -137,26 +228,239 @@ public class ExtractStyle {
     };
     Context m_context;
     private final HashMap<String, DrawableCache> m_drawableCache = new HashMap<>();
+    private final IdentityHashMap<Bitmap, JSONObject> m_chunkInfoCache = new IdentityHashMap<>();
+    private final IdentityHashMap<ColorStateList, Integer> m_colorStateListCache = new IdentityHashMap<>();
+    private final HashMap<String, Integer> m_colorStateListIndices = new HashMap<>();
+    private JSONArray m_colorStateLists = new JSONArray();
+
+    // The same fields and methods are looked up for every drawable, so resolve them only
+    // once per class. A null value means the class doesn't declare that member.
+    private static final HashMap<Class<?>, HashMap<String, Field>> m_fieldCache = new HashMap<>();
+    private static final HashMap<Class<?>, HashMap<String, Method>> m_methodCache = new HashMap<>();
 
     private static boolean m_missingNormalStyle = false;
     private static boolean m_missingDarkStyle = false;
     private static String  m_stylePath = null;
+    private static String  m_coreStylePath = null;
     private static boolean m_extractMinimal = false;
+    private static boolean m_extractOnDemand = false;
+    private static String m_imageFormat = StyleImageEncoder.PNG;
+    private static ExtractStyle m_onDemandExtractor = null;
+    private static ExtractionListener m_extractionListener = null;
+
+    // Extractions run on a single background thread, in the order they were requested
+    private static ExecutorService m_extractionExecutor = null;
+    private static final HashMap<String, Future<?>> m_pendingExtractions = new HashMap<>();
+    // The pending extractions the native style stopped waiting for
+    private static final HashSet<String> m_lateExtractions = new HashSet<>();
+    // The section files which are being extracted on demand, and those which can't be
+    private static final HashSet<String> m_pendingSections = new HashSet<>();
+    private static final HashSet<String> m_failedSections = new HashSet<>();
+
+    // The pixels of the images extracted in this session, by path, in the raw image layout.
+    // The native style reads them from here until their files are written behind.
+    private static final ConcurrentHashMap<String, ByteBuffer> m_imageBuffers =
+            new ConcurrentHashMap<>();
+    private static ExecutorService m_imageWriter = null;
+    private static final HashMap<String, Integer> m_pendingImageWrites = new HashMap<>();
+    // The images of a dpi are shared by the style directories of both UI modes
+    private static final String IMAGES_DIR = "images/";
+    // Exists while images of a style directory are still being written
+    private static final String PENDING_IMAGES_MARKER = ".pending_images";
+    // The shared images are named after the SHA-1 of their pixels
+    private static final Pattern CONTENT_NAME = Pattern.compile("[0-9a-f]{40}");
 
     private static final String QtTAG = "QtExtractStyle";
 
+    // The style.json sections, in the order they are written
+    private static final String[] STYLE_SECTIONS = {
+            "defaultStyle",
+            "windowStyle",
+            "buttonStyle",
+            "spinnerStyle",
+            "progressBarStyleHorizontal",
+            "progressBarStyleLarge",
+            "progressBarStyleSmall",
+            "progressBarStyle",
+            "seekBarStyle",
+            "switchStyle",
+            "checkboxStyle",
+            "editTextStyle",
+            "radioButtonStyle",
+            "textViewStyle",
+            "scrollViewStyle",
+            "listViewStyle",
+            "listSeparatorTextViewStyle",
+            "simple_list_item",
+            "simple_list_item_checked",
+            "simple_list_item_multiple_choice",
+            "simple_list_item_single_choice",
+            "simple_spinner_item",
+            "simple_spinner_dropdown_item",
+            "simple_dropdown_item_1line",
+            "simple_selectable_list_item",
+            "buttonStyleToggle",
+            "calendarViewStyle",
+            "actionBarStyle",
+            "actionButtonStyle",
+            "actionBarTabTextStyle",
+            "actionBarTabStyle",
+            "actionOverflowButtonStyle",
+            "actionBarTabBarStyle"
+    };
+
+    // Attribute sets used for every extracted style
+    private static final AttributeIndex VIEW_ATTRIBUTES = new AttributeIndex(new int[]{
+            android.R.attr.digits,
+            android.R.attr.background,
+            android.R.attr.padding,
+            android.R.attr.paddingLeft,
+            android.R.attr.paddingTop,
+            android.R.attr.paddingRight,
+            android.R.attr.paddingBottom,
+            android.R.attr.scrollX,
+            android.R.attr.scrollY,
+            android.R.attr.id,
+            android.R.attr.tag,
+            android.R.attr.fitsSystemWindows,
+            android.R.attr.focusable,
+            android.R.attr.focusableInTouchMode,
+            android.R.attr.clickable,
+            android.R.attr.longClickable,
+            android.R.attr.saveEnabled,
+            android.R.attr.duplicateParentState,
+            android.R.attr.visibility,
+            android.R.attr.drawingCacheQuality,
+            android.R.attr.contentDescription,
+            android.R.attr.soundEffectsEnabled,
+            android.R.attr.hapticFeedbackEnabled,
+            android.R.attr.scrollbars,
+            android.R.attr.fadingEdge,
+            android.R.attr.scrollbarStyle,
+            android.R.attr.scrollbarFadeDuration,
+            android.R.attr.scrollbarDefaultDelayBeforeFade,
+            android.R.attr.scrollbarSize,
+            android.R.attr.scrollbarThumbHorizontal,
+            android.R.attr.scrollbarThumbVertical,
+            android.R.attr.scrollbarTrackHorizontal,
+            android.R.attr.scrollbarTrackVertical,
+            android.R.attr.isScrollContainer,
+            android.R.attr.keepScreenOn,
+            android.R.attr.filterTouchesWhenObscured,
+            android.R.attr.nextFocusLeft,
+            android.R.attr.nextFocusRight,
+            android.R.attr.nextFocusUp,
+            android.R.attr.nextFocusDown,
+            android.R.attr.minWidth,
+            android.R.attr.minHeight,
+            android.R.attr.onClick,
+            android.R.attr.overScrollMode,
+            android.R.attr.paddingStart,
+            android.R.attr.paddingEnd
+    });
+    private static final AttributeIndex TEXT_APPEARANCE_ATTRIBUTES = new AttributeIndex(new int[]{
+            android.R.attr.textSize,
+            android.R.attr.textStyle,
+            android.R.attr.textColor,
+            android.R.attr.typeface,
+            android.R.attr.textAllCaps,
+            android.R.attr.textColorHint,
+            android.R.attr.textColorLink,
+            android.R.attr.textColorHighlight
+    });
+    private static final AttributeIndex TEXT_APPEARANCE_STYLE_ATTRIBUTES = new AttributeIndex(new int[]{
+            android.R.attr.textSize,
+            android.R.attr.textStyle,
+            android.R.attr.typeface,
+            android.R.attr.textAllCaps,
+            android.R.attr.textColorHighlight
+    });
+    private static final AttributeIndex TEXT_VIEW_ATTRIBUTES = new AttributeIndex(new int[]{
+            android.R.attr.editable,
+            android.R.attr.inputMethod,
+            android.R.attr.numeric,
+            android.R.attr.digits,
+            android.R.attr.phoneNumber,
+            android.R.attr.autoText,
+            android.R.attr.capitalize,
+            android.R.attr.bufferType,
+            android.R.attr.selectAllOnFocus,
+            android.R.attr.autoLink,
+            android.R.attr.linksClickable,
+            android.R.attr.drawableLeft,
+            android.R.attr.drawableTop,
+            android.R.attr.drawableRight,
+            android.R.attr.drawableBottom,
+            android.R.attr.drawableStart,
+            android.R.attr.drawableEnd,
+            android.R.attr.maxLines,
+            android.R.attr.drawablePadding,
+            android.R.attr.textCursorDrawable,
+            android.R.attr.maxHeight,
+            android.R.attr.lines,
+            android.R.attr.height,
+            android.R.attr.minLines,
+            android.R.attr.minHeight,
+            android.R.attr.maxEms,
+            android.R.attr.maxWidth,
+            android.R.attr.ems,
+            android.R.attr.width,
+            android.R.attr.minEms,
+            android.R.attr.minWidth,
+            android.R.attr.gravity,
+            android.R.attr.hint,
+            android.R.attr.text,
+            android.R.attr.scrollHorizontally,
+            android.R.attr.singleLine,
+            android.R.attr.ellipsize,
+            android.R.attr.marqueeRepeatLimit,
+            android.R.attr.includeFontPadding,
+            android.R.attr.cursorVisible,
+            android.R.attr.maxLength,
+            android.R.attr.textScaleX,
+            android.R.attr.freezesText,
+            android.R.attr.shadowColor,
+            android.R.attr.shadowDx,
+            android.R.attr.shadowDy,
+            android.R.attr.shadowRadius,
+            android.R.attr.enabled,
+            android.R.attr.textColorHighlight,
+            android.R.attr.textColor,
+            android.R.attr.textColorHint,
+            android.R.attr.textColorLink,
+            android.R.attr.textSize,
+            android.R.attr.typeface,
+            android.R.attr.textStyle,
+            android.R.attr.password,
+            android.R.attr.lineSpacingExtra,
+            android.R.attr.lineSpacingMultiplier,
+            android.R.attr.inputType,
+            android.R.attr.imeOptions,
+            android.R.attr.imeActionLabel,
+            android.R.attr.imeActionId,
+            android.R.attr.privateImeOptions,
+            android.R.attr.textSelectHandleLeft,
+            android.R.attr.textSelectHandleRight,
+            android.R.attr.textSelectHandle,
+            android.R.attr.textIsSelectable,
+            android.R.attr.textAllCaps
+    });
+
     private static boolean isUiModeDark(Configuration config)
     {
         return (config.uiMode & Configuration.UI_MODE_NIGHT_MASK) == Configuration.UI_MODE_NIGHT_YES;
     }
 
-    public static String setup(Activity activity, String extractOption, int dpi) {
+    public static String setup(Activity activity, String extractOption, String imageFormat,
+                               int dpi) {
 
         String dataDir = activity.getApplicationInfo().dataDir;
-        m_stylePath = dataDir + "/qt-reserved-files/android-style/" + dpi + "/";
+        m_coreStylePath = dataDir + "/qt-reserved-files/android-style/";
+        m_stylePath = m_coreStylePath + dpi + "/";
 
         if (!extractOption.equals("default") && !extractOption.equals("full")
-                && !extractOption.equals("minimal") && !extractOption.equals("none")) {
+                && !extractOption.equals("minimal") && !extractOption.equals("on_demand")
+                && !extractOption.equals("none")) {
             Log.e(QtTAG, "Invalid extract_android_style option \"" + extractOption
                     + "\", defaulting to \"default\"");
             extractOption = "default";
@@ -174,36 +478,521 @@ public class ExtractStyle {
             }
         }
 
-        boolean darkModeFileMissing = !(new File(m_stylePath + "darkUiMode/style.json").exists());
-        m_missingDarkStyle = Build.VERSION.SDK_INT > 28 && darkModeFileMissing;
-        m_missingNormalStyle = !(new File(m_stylePath + "style.json").exists());
-        m_extractMinimal = extractOption.equals("minimal");
+        if (!imageFormat.isEmpty())
+            m_imageFormat = imageFormat;
+
+        m_missingDarkStyle = Build.VERSION.SDK_INT > 28 && isStyleMissing("darkUiMode/");
+        m_missingNormalStyle = isStyleMissing("");
+        // In on demand mode style.json only carries the palettes and fonts, the widget
+        // drawables are extracted section by section when the style asks for them.
+        m_extractOnDemand = extractOption.equals("on_demand");
+        m_extractMinimal = extractOption.equals("minimal") || m_extractOnDemand;
 
-        ExtractStyle.runIfNeeded(activity, isUiModeDark(activity.getResources().getConfiguration()));
+        boolean darkUiMode = isUiModeDark(activity.getResources().getConfiguration());
+        ExtractStyle.runIfNeeded(activity, darkUiMode);
+        if (Build.VERSION.SDK_INT > 28)
+            extractAlternateUiModeWhenIdle(activity, !darkUiMode);
 
         return m_stylePath;
     }
 
+    private static boolean isStyleMissing(String uiModePath)
+    {
+        String stylePath = m_stylePath + uiModePath;
+        // The marker is left behind when the application was stopped before all the
+        // images were written, throw away the style files that refer to them
+        File marker = new File(stylePath + PENDING_IMAGES_MARKER);
+        if (marker.exists()) {
+            File[] files = new File(stylePath).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(".json") && !file.delete())
+                        Log.w(QtTAG, "Cannot delete " + file.getAbsolutePath());
+                }
+            }
+            if (!marker.delete())
+                Log.w(QtTAG, "Cannot delete " + marker.getAbsolutePath());
+            return true;
+        }
+        return !new File(stylePath + "drawables.json").exists()
+                || !new File(m_coreStylePath + uiModePath + "style.json").exists();
+    }
+
+    // Extracts the style of the other UI mode once the application is idle, so switching
+    // the UI mode later only has to load the existing style files
+    private static void extractAlternateUiModeWhenIdle(final Activity activity,
+                                                       final boolean extractDarkMode)
+    {
+        if (extractDarkMode ? !m_missingDarkStyle : !m_missingNormalStyle)
+            return;
+
+        Looper.getMainLooper().getQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                // The UI mode might have been switched in the meantime
+                if (extractDarkMode ? !m_missingDarkStyle : !m_missingNormalStyle)
+                    return false;
+
+                Context context = createUiModeContext(activity, extractDarkMode);
+                if (context == null)
+                    return false;
+
+                extractInBackground(context, extractDarkMode, m_extractMinimal);
+                if (extractDarkMode)
+                    m_missingDarkStyle = false;
+                else
+                    m_missingNormalStyle = false;
+                return false;
+            }
+        });
+    }
+
+    // Returns a context using the activity theme with the given UI mode, regardless of
+    // the current configuration
+    private static Context createUiModeContext(Activity activity, boolean darkUiMode)
+    {
+        int themeResId;
+        try {
+            themeResId = activity.getPackageManager()
+                    .getActivityInfo(activity.getComponentName(), 0).getThemeResource();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        // Same theme QtActivityBase uses when none is set
+        if (themeResId == 0) {
+            themeResId = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ?
+                    android.R.style.Theme_DeviceDefault_DayNight :
+                    android.R.style.Theme_Holo_Light;
+        }
+
+        Configuration config = new Configuration(activity.getResources().getConfiguration());
+        config.uiMode = (config.uiMode & ~Configuration.UI_MODE_NIGHT_MASK)
+                | (darkUiMode ? Configuration.UI_MODE_NIGHT_YES : Configuration.UI_MODE_NIGHT_NO);
+
+        ContextThemeWrapper context = new ContextThemeWrapper(activity, themeResId);
+        context.applyOverrideConfiguration(config);
+        return context;
+    }
+
     public static void runIfNeeded(Context context, boolean extractDarkMode) {
         if (m_stylePath == null)
             return;
         if (extractDarkMode) {
             if (m_missingDarkStyle) {
-                new ExtractStyle(context, m_stylePath + "darkUiMode/", m_extractMinimal);
+                extractInBackground(context, true, m_extractMinimal);
                 m_missingDarkStyle = false;
             }
         } else if (m_missingNormalStyle) {
-            new ExtractStyle(context, m_stylePath, m_extractMinimal);
+            extractInBackground(context, false, m_extractMinimal);
             m_missingNormalStyle = false;
         }
     }
 
+    /**
+     * Receives the progress of the style extractions. The callbacks are called
+     * from the extraction thread.
+     **/
+    public interface ExtractionListener {
+        void onSectionExtracted(String stylePath, String section, int index, int count,
+                                long elapsedNanos);
+        void onExtractionFinished(String stylePath, long elapsedNanos);
+    }
+
+    public static void setExtractionListener(ExtractionListener listener)
+    {
+        m_extractionListener = listener;
+    }
+
+    private static Future<?> submitExtraction(Runnable extraction)
+    {
+        synchronized (m_pendingExtractions) {
+            if (m_extractionExecutor == null) {
+                m_extractionExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "qtStyleExtraction");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+            }
+            return m_extractionExecutor.submit(extraction);
+        }
+    }
+
+    private static void extractInBackground(final Context context, boolean darkUiMode,
+                                            final boolean minimal)
+    {
+        String uiModePath = darkUiMode ? "darkUiMode/" : "";
+        final String corePath = m_coreStylePath + uiModePath;
+        final String stylePath = m_stylePath + uiModePath;
+        synchronized (m_pendingExtractions) {
+            Future<?> extraction = submitExtraction(new Runnable() {
+                @Override
+                public void run() {
+                    new ExtractStyle(context, corePath, stylePath, m_stylePath + IMAGES_DIR,
+                                     minimal, true);
+
+                    boolean late;
+                    synchronized (m_pendingExtractions) {
+                        m_pendingExtractions.remove(stylePath);
+                        late = m_lateExtractions.remove(stylePath);
+                    }
+                    // The native style uses its defaults until it reloads the style
+                    if (late)
+                        handleStyleExtracted();
+
+                    collectUnusedImages(m_stylePath);
+                }
+            });
+            m_pendingExtractions.put(stylePath, extraction);
+        }
+    }
+
+    native static void handleStyleExtracted();
+
+    /**
+     * Waits for a pending extraction of stylePath, for at most timeoutMs milliseconds.
+     * Called by the native style before it reads style.json. When the extraction
+     * does not finish in time, handleStyleExtracted() is called once it does.
+     *
+     * @return false if the style is still being extracted
+     **/
+    public static boolean waitForExtraction(String stylePath, long timeoutMs)
+    {
+        Future<?> extraction;
+        synchronized (m_pendingExtractions) {
+            extraction = m_pendingExtractions.get(stylePath);
+        }
+        if (extraction == null)
+            return true;
+
+        try {
+            extraction.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            synchronized (m_pendingExtractions) {
+                // Finished in the meantime
+                if (!m_pendingExtractions.containsKey(stylePath))
+                    return true;
+                m_lateExtractions.add(stylePath);
+            }
+            Log.w(QtTAG, "Style extraction to " + stylePath + " did not finish in "
+                    + timeoutMs + " ms");
+            return false;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the pixels of an image extracted in this session, in the raw image
+     * layout of StyleImageEncoder, or null if the image has to be read from its file.
+     * The buffer is direct and dropped once the image file is written, so the caller
+     * has to copy the pixels while it holds a reference to the buffer.
+     **/
+    public static ByteBuffer imageBuffer(String path)
+    {
+        return m_imageBuffers.get(path);
+    }
+
+    // Deletes the images of a dpi which none of its style files refers to anymore, such as
+    // the ones of a drawables.json which was extracted again. Only the style files of that
+    // dpi are read, style.json refers to no image and the other dpis have their own. Runs
+    // on the extraction thread, so no style file is being written meanwhile.
+    private static void collectUnusedImages(String stylePath)
+    {
+        File imagesDir = new File(stylePath + IMAGES_DIR);
+        HashSet<String> referenced = new HashSet<>();
+        if (!collectImageReferences(new File(stylePath), imagesDir, referenced))
+            return;
+
+        File[] images = imagesDir.listFiles();
+        if (images == null)
+            return;
+
+        // Only the extractions queue image writes, so none is added meanwhile
+        boolean writing;
+        synchronized (m_pendingImageWrites) {
+            writing = !m_pendingImageWrites.isEmpty();
+        }
+
+        int deleted = 0;
+        for (File image : images) {
+            String name = image.getName();
+            int dot = name.indexOf('.');
+            if (dot < 0 || referenced.contains(name.substring(0, dot)))
+                continue;
+            // Temporary files are left behind by the sessions which were stopped while
+            // writing an image
+            if (writing && name.endsWith(".tmp"))
+                continue;
+            if (image.delete())
+                ++deleted;
+            else
+                Log.w(QtTAG, "Cannot delete " + image.getAbsolutePath());
+        }
+        if (deleted > 0)
+            Log.d(QtTAG, "Deleted " + deleted + " unused Android style images");
+    }
+
+    // Returns false if a style file can't be read, nothing must be deleted then
+    private static boolean collectImageReferences(File dir, File imagesDir,
+                                                  HashSet<String> referenced)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return false;
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!file.equals(imagesDir) && !collectImageReferences(file, imagesDir, referenced))
+                    return false;
+                continue;
+            }
+            if (!file.getName().endsWith(".json"))
+                continue;
+
+            try {
+                Matcher matcher = CONTENT_NAME.matcher(readFile(file));
+                while (matcher.find())
+                    referenced.add(matcher.group());
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readFile(File file) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                content.write(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        return content.toString("UTF-8");
+    }
+
+    private static String contentName(ByteBuffer pixels)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(pixels.duplicate());
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest())
+                name.append(String.format("%02x", b));
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return Integer.toHexString(pixels.hashCode());
+        }
+    }
+
+    private static void writeImageBehind(final StyleImageEncoder encoder, final Bitmap bitmap,
+                                         final ByteBuffer pixels, final String path,
+                                         final String stylePath)
+    {
+        synchronized (m_pendingImageWrites) {
+            if (m_imageWriter == null) {
+                m_imageWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "qtStyleImageWriter");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+            }
+
+            Integer pending = m_pendingImageWrites.get(stylePath);
+            if (pending == null) {
+                pending = 0;
+                try {
+                    if (!new File(stylePath + PENDING_IMAGES_MARKER).createNewFile())
+                        Log.w(QtTAG, "Android style image marker already exists.");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            m_pendingImageWrites.put(stylePath, pending + 1);
+
+            m_imageWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Write to a temporary file first, so that an image file is
+                    // either complete or missing
+                    File file = new File(path);
+                    File tmpFile = new File(path + ".tmp");
+                    try {
+                        FileOutputStream out = new FileOutputStream(tmpFile);
+                        try {
+                            if (encoder.isRaw())
+                                StyleImageEncoder.writeRaw(pixels, out);
+                            else
+                                encoder.encode(bitmap, out);
+                        } finally {
+                            out.close();
+                        }
+                        // The native style reads the file from now on
+                        if (tmpFile.renameTo(file))
+                            m_imageBuffers.remove(path, pixels);
+                        else
+                            Log.w(QtTAG, "Cannot write Android style image " + path);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+
+                    synchronized (m_pendingImageWrites) {
+                        int left = m_pendingImageWrites.get(stylePath) - 1;
+                        if (left > 0) {
+                            m_pendingImageWrites.put(stylePath, left);
+                        } else {
+                            m_pendingImageWrites.remove(stylePath);
+                            if (!new File(stylePath + PENDING_IMAGES_MARKER).delete())
+                                Log.w(QtTAG, "Cannot delete Android style image marker.");
+                            if (m_pendingImageWrites.isEmpty())
+                                m_pendingImageWrites.notifyAll();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until the images of all the extractions so far are written to their files,
+     * for at most timeoutMs milliseconds.
+     *
+     * @return false if images are still being written
+     **/
+    public static boolean waitForImageWrites(long timeoutMs)
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        synchronized (m_pendingImageWrites) {
+            while (!m_pendingImageWrites.isEmpty()) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0)
+                    return false;
+                try {
+                    m_pendingImageWrites.wait(left);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    native static void handleStyleSectionExtracted();
+
+    /**
+     * Returns the file caching a single style.json section, including its drawables,
+     * in the style directory of the dpi as "<section>.json". A missing section is extracted on the
+     * extraction thread, so the first paint doesn't wait for it, and
+     * handleStyleSectionExtracted() is called once it is ready. Only available in
+     * "on_demand" mode.
+     *
+     * @return the path of the section file, an empty string while the section is
+     *         being extracted, or null if the section can't be extracted
+     **/
+    public static synchronized String extractSection(final String section)
+    {
+        if (m_stylePath == null || !m_extractOnDemand)
+            return null;
+
+        Context context = QtNative.getContext();
+        if (context == null)
+            return null;
+
+        String stylePath = m_stylePath;
+        if (isUiModeDark(context.getResources().getConfiguration()))
+            stylePath += "darkUiMode/";
+
+        final File sectionFile = new File(stylePath + section + ".json");
+        final String sectionPath = sectionFile.getAbsolutePath();
+        if (sectionFile.exists())
+            return sectionPath;
+        if (m_failedSections.contains(sectionPath))
+            return null;
+        if (!m_pendingSections.add(sectionPath))
+            return "";
+
+        final String extractPath = stylePath;
+        submitExtraction(new Runnable() {
+            @Override
+            public void run() {
+                boolean extracted = writeSection(context, extractPath, section, sectionFile);
+                synchronized (ExtractStyle.class) {
+                    m_pendingSections.remove(sectionPath);
+                    if (!extracted)
+                        m_failedSections.add(sectionPath);
+                }
+                handleStyleSectionExtracted();
+            }
+        });
+        return "";
+    }
+
+    // Runs on the extraction thread, after the pending style.json extractions
+    private static boolean writeSection(Context context, String stylePath, String section,
+                                        File sectionFile)
+    {
+        // Keep the extractor around, so the drawables shared between sections
+        // are written only once
+        if (m_onDemandExtractor == null || m_onDemandExtractor.m_context != context
+                || !m_onDemandExtractor.m_extractPath.equals(stylePath + "/")) {
+            m_onDemandExtractor = new ExtractStyle(context, null, stylePath,
+                                                   m_stylePath + IMAGES_DIR, false, false);
+        }
+
+        JSONObject json = m_onDemandExtractor.extract(section);
+        if (json == null)
+            return false;
+
+        // Write to a temporary file first, so that a section file is either complete
+        // or missing
+        File tmpFile = new File(sectionFile.getAbsolutePath() + ".tmp");
+        try {
+            SimpleJsonWriter jsonWriter = new SimpleJsonWriter(tmpFile.getAbsolutePath());
+            jsonWriter.beginObject();
+            jsonWriter.name(section).value(json);
+            jsonWriter.name("colorStateLists").value(m_onDemandExtractor.extractColorStateLists());
+            jsonWriter.name("density").value(m_onDemandExtractor.density());
+            jsonWriter.endObject();
+            jsonWriter.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+        return tmpFile.renameTo(sectionFile);
+    }
+
     public ExtractStyle(Context context, String extractPath, boolean minimal) {
+        this(context, extractPath, extractPath, extractPath, minimal, true);
+    }
+
+    // style.json is written to corePath, drawables.json to extractPath and the images
+    // to imagesPath. Without writeStyle the extractor only extracts sections on demand.
+    private ExtractStyle(Context context, String corePath, String extractPath, String imagesPath,
+                         boolean minimal, boolean writeStyle) {
+        long startTime = System.nanoTime();
         m_minimal = minimal;
         m_extractPath = extractPath + "/";
         boolean dirCreated = new File(m_extractPath).mkdirs();
         if (!dirCreated)
             Log.w(QtNative.QtTAG, "Cannot create Android style directory.");
+        m_imagesPath = imagesPath + "/";
+        File imagesDir = new File(m_imagesPath);
+        if (!imagesDir.isDirectory() && !imagesDir.mkdirs())
+            Log.w(QtNative.QtTAG, "Cannot create Android style images directory.");
         m_context = context;
         m_theme = context.getTheme();
         TypedArray array = m_theme.obtainStyledAttributes(new int[]{
@@ -218,44 +1007,160 @@ public class ExtractStyle {
         defaultTextColor = textColor;
         array.recycle();
 
+        if (!writeStyle)
+            return;
+
+        // The sections extracted on demand belong to the previous style.json
+        for (String section : STYLE_SECTIONS) {
+            File sectionFile = new File(m_extractPath + section + ".json");
+            if (sectionFile.exists() && !sectionFile.delete())
+                Log.w(QtTAG, "Cannot delete " + sectionFile.getAbsolutePath());
+        }
+        synchronized (ExtractStyle.class) {
+            m_failedSections.clear();
+        }
+
+        // style.json doesn't depend on the dpi, so only the first extraction for a UI mode
+        // writes it. The extractions for other dpis only write their drawables.json.
+        File coreDir = new File(corePath);
+        File coreFile = new File(coreDir, "style.json");
+        File drawablesFile = new File(m_extractPath + "drawables.json");
+        boolean writeCore = !coreFile.exists() || !readColorStateLists(coreFile);
+        if (writeCore && !coreDir.isDirectory() && !coreDir.mkdirs())
+            Log.w(QtNative.QtTAG, "Cannot create Android style directory.");
+
+        // Write to temporary files first, so that a style file is either complete or missing
+        File coreTmpFile = new File(coreFile.getAbsolutePath() + ".tmp");
+        File drawablesTmpFile = new File(drawablesFile.getAbsolutePath() + ".tmp");
         try {
-            SimpleJsonWriter jsonWriter = new SimpleJsonWriter(m_extractPath + "style.json");
-            jsonWriter.beginObject();
+            SimpleJsonWriter coreWriter = null;
+            if (writeCore) {
+                coreWriter = new SimpleJsonWriter(coreTmpFile.getAbsolutePath());
+                coreWriter.beginObject();
+            }
+            SimpleJsonWriter drawablesWriter =
+                    new SimpleJsonWriter(drawablesTmpFile.getAbsolutePath());
+            drawablesWriter.beginObject();
             try {
-                jsonWriter.name("defaultStyle").value(extractDefaultPalette());
-                extractWindow(jsonWriter);
-                jsonWriter.name("buttonStyle").value(extractTextAppearanceInformation(android.R.attr.buttonStyle, "QPushButton"));
-                jsonWriter.name("spinnerStyle").value(extractTextAppearanceInformation(android.R.attr.spinnerStyle, "QComboBox"));
-                extractProgressBar(jsonWriter, android.R.attr.progressBarStyleHorizontal, "progressBarStyleHorizontal", "QProgressBar");
-                extractProgressBar(jsonWriter, android.R.attr.progressBarStyleLarge, "progressBarStyleLarge", null);
-                extractProgressBar(jsonWriter, android.R.attr.progressBarStyleSmall, "progressBarStyleSmall", null);
-                extractProgressBar(jsonWriter, android.R.attr.progressBarStyle, "progressBarStyle", null);
-                extractAbsSeekBar(jsonWriter);
-                extractSwitch(jsonWriter);
-                extractCompoundButton(jsonWriter, android.R.attr.checkboxStyle, "checkboxStyle", "QCheckBox");
-                jsonWriter.name("editTextStyle").value(extractTextAppearanceInformation(android.R.attr.editTextStyle, "QLineEdit"));
-                extractCompoundButton(jsonWriter, android.R.attr.radioButtonStyle, "radioButtonStyle", "QRadioButton");
-                jsonWriter.name("textViewStyle").value(extractTextAppearanceInformation(android.R.attr.textViewStyle, "QWidget"));
-                jsonWriter.name("scrollViewStyle").value(extractTextAppearanceInformation(android.R.attr.scrollViewStyle, "QAbstractScrollArea"));
-                extractListView(jsonWriter);
-                jsonWriter.name("listSeparatorTextViewStyle").value(extractTextAppearanceInformation(android.R.attr.listSeparatorTextViewStyle, null));
-                extractItemsStyle(jsonWriter);
-                extractCompoundButton(jsonWriter, android.R.attr.buttonStyleToggle, "buttonStyleToggle", null);
-                extractCalendar(jsonWriter);
-                extractToolBar(jsonWriter);
-                jsonWriter.name("actionButtonStyle").value(extractTextAppearanceInformation(android.R.attr.actionButtonStyle, "QToolButton"));
-                jsonWriter.name("actionBarTabTextStyle").value(extractTextAppearanceInformation(android.R.attr.actionBarTabTextStyle, null));
-                jsonWriter.name("actionBarTabStyle").value(extractTextAppearanceInformation(android.R.attr.actionBarTabStyle, null));
-                jsonWriter.name("actionOverflowButtonStyle").value(extractImageViewInformation(android.R.attr.actionOverflowButtonStyle, null));
-                extractTabBar(jsonWriter);
+                ExtractionListener listener = m_extractionListener;
+                for (int i = 0; i < STYLE_SECTIONS.length; ++i) {
+                    long sectionStartTime = System.nanoTime();
+                    JSONObject json = extract(STYLE_SECTIONS[i]);
+                    if (json != null) {
+                        JSONObject drawables = takeDrawables(json);
+                        if (coreWriter != null)
+                            coreWriter.name(STYLE_SECTIONS[i]).value(json);
+                        if (drawables != null)
+                            drawablesWriter.name(STYLE_SECTIONS[i]).value(drawables);
+                    }
+                    if (listener != null) {
+                        listener.onSectionExtracted(extractPath, STYLE_SECTIONS[i], i + 1,
+                                STYLE_SECTIONS.length, System.nanoTime() - sectionStartTime);
+                    }
+                }
+                JSONObject colorStateLists = extractColorStateLists();
+                if (coreWriter != null)
+                    coreWriter.name("colorStateLists").value(colorStateLists);
+                // The ones of style.json, and those only the drawables use
+                drawablesWriter.name("colorStateLists").value(colorStateLists);
+                drawablesWriter.name("density").value(density());
             } catch (Exception e) {
                 e.printStackTrace();
             }
-            jsonWriter.endObject();
-            jsonWriter.close();
+            if (coreWriter != null) {
+                coreWriter.endObject();
+                coreWriter.close();
+                if (!coreTmpFile.renameTo(coreFile))
+                    Log.w(QtTAG, "Cannot write " + coreFile.getAbsolutePath());
+            }
+            drawablesWriter.endObject();
+            drawablesWriter.close();
+            if (!drawablesTmpFile.renameTo(drawablesFile))
+                Log.w(QtTAG, "Cannot write " + drawablesFile.getAbsolutePath());
         } catch (Exception e) {
             e.printStackTrace();
         }
+
+        long elapsedNanos = System.nanoTime() - startTime;
+        Log.d(QtTAG, "Extracted style to " + extractPath + " in "
+                + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms");
+        ExtractionListener listener = m_extractionListener;
+        if (listener != null)
+            listener.onExtractionFinished(extractPath, elapsedNanos);
+    }
+
+    private JSONObject extract(String section) {
+        switch (section) {
+            case "defaultStyle":
+                return extractDefaultPalette();
+            case "windowStyle":
+                return extractWindow();
+            case "buttonStyle":
+                return extractTextAppearanceInformation(android.R.attr.buttonStyle, "QPushButton");
+            case "spinnerStyle":
+                return extractTextAppearanceInformation(android.R.attr.spinnerStyle, "QComboBox");
+            case "progressBarStyleHorizontal":
+                return extractProgressBar(android.R.attr.progressBarStyleHorizontal, "QProgressBar");
+            case "progressBarStyleLarge":
+                return extractProgressBar(android.R.attr.progressBarStyleLarge, null);
+            case "progressBarStyleSmall":
+                return extractProgressBar(android.R.attr.progressBarStyleSmall, null);
+            case "progressBarStyle":
+                return extractProgressBar(android.R.attr.progressBarStyle, null);
+            case "seekBarStyle":
+                return extractAbsSeekBar();
+            case "switchStyle":
+                return extractSwitch();
+            case "checkboxStyle":
+                return extractCompoundButton(android.R.attr.checkboxStyle, "QCheckBox");
+            case "editTextStyle":
+                return extractTextAppearanceInformation(android.R.attr.editTextStyle, "QLineEdit");
+            case "radioButtonStyle":
+                return extractCompoundButton(android.R.attr.radioButtonStyle, "QRadioButton");
+            case "textViewStyle":
+                return extractTextAppearanceInformation(android.R.attr.textViewStyle, "QWidget");
+            case "scrollViewStyle":
+                return extractTextAppearanceInformation(android.R.attr.scrollViewStyle, "QAbstractScrollArea");
+            case "listViewStyle":
+                return extractListView();
+            case "listSeparatorTextViewStyle":
+                return extractTextAppearanceInformation(android.R.attr.listSeparatorTextViewStyle, null);
+            case "simple_list_item":
+                return extractItemStyle(android.R.layout.simple_list_item_1, section);
+            case "simple_list_item_checked":
+                return extractItemStyle(android.R.layout.simple_list_item_checked, section);
+            case "simple_list_item_multiple_choice":
+                return extractItemStyle(android.R.layout.simple_list_item_multiple_choice, section);
+            case "simple_list_item_single_choice":
+                return extractItemStyle(android.R.layout.simple_list_item_single_choice, section);
+            case "simple_spinner_item":
+                return extractItemStyle(android.R.layout.simple_spinner_item, section);
+            case "simple_spinner_dropdown_item":
+                return extractItemStyle(android.R.layout.simple_spinner_dropdown_item, section);
+            case "simple_dropdown_item_1line":
+                return extractItemStyle(android.R.layout.simple_dropdown_item_1line, section);
+            case "simple_selectable_list_item":
+                return extractItemStyle(android.R.layout.simple_selectable_list_item, section);
+            case "buttonStyleToggle":
+                return extractCompoundButton(android.R.attr.buttonStyleToggle, null);
+            case "calendarViewStyle":
+                return extractCalendar();
+            case "actionBarStyle":
+                return extractToolBar();
+            case "actionButtonStyle":
+                return extractTextAppearanceInformation(android.R.attr.actionButtonStyle, "QToolButton");
+            case "actionBarTabTextStyle":
+                return extractTextAppearanceInformation(android.R.attr.actionBarTabTextStyle, null);
+            case "actionBarTabStyle":
+                return extractTextAppearanceInformation(android.R.attr.actionBarTabStyle, null);
+            case "actionOverflowButtonStyle":
+                return extractImageViewInformation(android.R.attr.actionOverflowButtonStyle, null);
+            case "actionBarTabBarStyle":
+                return extractTabBar();
+            default:
+                Log.w(QtTAG, "Unknown style section \"" + section + "\"");
+                return null;
+        }
     }
 
     native static int[] extractNativeChunkInfo20(long nativeChunk);
@@ -287,77 +1192,215 @@ public class ExtractStyle {
         return null;
     }
 
-    Field getAccessibleField(Class<?> clazz, String fieldName) {
-        try {
-            Field f = clazz.getDeclaredField(fieldName);
-            f.setAccessible(true);
+    private static Field getDeclaredField(Class<?> clazz, String fieldName) {
+        synchronized (m_fieldCache) {
+            HashMap<String, Field> fields = m_fieldCache.get(clazz);
+            if (fields == null) {
+                fields = new HashMap<>();
+                m_fieldCache.put(clazz, fields);
+            } else if (fields.containsKey(fieldName)) {
+                return fields.get(fieldName);
+            }
+
+            Field f = null;
+            try {
+                f = clazz.getDeclaredField(fieldName);
+                f.setAccessible(true);
+            } catch (Exception ignored) {
+            }
+            fields.put(fieldName, f);
             return f;
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return null;
+    }
+
+    private static Method getMethod(Class<?> clazz, String methodName, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        synchronized (m_methodCache) {
+            HashMap<String, Method> methods = m_methodCache.get(clazz);
+            if (methods == null) {
+                methods = new HashMap<>();
+                m_methodCache.put(clazz, methods);
+            }
+
+            String key = methodName + Arrays.toString(parameterTypes);
+            Method m;
+            if (methods.containsKey(key)) {
+                m = methods.get(key);
+            } else {
+                try {
+                    m = clazz.getMethod(methodName, parameterTypes);
+                } catch (NoSuchMethodException e) {
+                    m = null;
+                }
+                methods.put(key, m);
+            }
+            if (m == null)
+                throw new NoSuchMethodException(clazz.getName() + "." + methodName);
+            return m;
+        }
+    }
+
+    Field getAccessibleField(Class<?> clazz, String fieldName) {
+        Field f = getDeclaredField(clazz, fieldName);
+        if (f == null)
+            Log.w(QtTAG, "Cannot access field " + clazz.getName() + "." + fieldName);
+        return f;
     }
 
     Field tryGetAccessibleField(Class<?> clazz, String fieldName) {
         if (clazz == null)
             return null;
 
-        try {
-            Field f = clazz.getDeclaredField(fieldName);
-            f.setAccessible(true);
+        Field f = getDeclaredField(clazz, fieldName);
+        if (f != null)
             return f;
-        } catch (Exception e) {
-            for (Class<?> c : clazz.getInterfaces()) {
-                Field f = tryGetAccessibleField(c, fieldName);
-                if (f != null)
-                    return f;
-            }
+
+        for (Class<?> c : clazz.getInterfaces()) {
+            f = tryGetAccessibleField(c, fieldName);
+            if (f != null)
+                return f;
         }
         return tryGetAccessibleField(clazz.getSuperclass(), fieldName);
     }
 
-    JSONObject getColorStateList(ColorStateList colorList) {
+    // Color state lists are written once, to the "colorStateLists" section, as arrays of
+    // colors ordered like COLOR_STATE_SETS. The styles refer to them by their index.
+    int getColorStateList(ColorStateList colorList) {
+        Integer index = m_colorStateListCache.get(colorList);
+        if (index != null)
+            return index;
+
+        JSONArray colors = new JSONArray();
+        for (int[] stateSet : COLOR_STATE_SETS)
+            colors.put(colorList.getColorForState(stateSet, 0));
+
+        String key = colors.toString();
+        index = m_colorStateListIndices.get(key);
+        if (index == null) {
+            index = m_colorStateLists.length();
+            m_colorStateLists.put(colors);
+            m_colorStateListIndices.put(key, index);
+        }
+        m_colorStateListCache.put(colorList, index);
+        return index;
+    }
+
+    private JSONObject extractColorStateLists() {
         JSONObject json = new JSONObject();
         try {
-            json.put("EMPTY_STATE_SET", colorList.getColorForState(EMPTY_STATE_SET, 0));
-            json.put("WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("SELECTED_STATE_SET", colorList.getColorForState(SELECTED_STATE_SET, 0));
-            json.put("SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("FOCUSED_STATE_SET", colorList.getColorForState(FOCUSED_STATE_SET, 0));
-            json.put("FOCUSED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(FOCUSED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("FOCUSED_SELECTED_STATE_SET", colorList.getColorForState(FOCUSED_SELECTED_STATE_SET, 0));
-            json.put("FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("ENABLED_STATE_SET", colorList.getColorForState(ENABLED_STATE_SET, 0));
-            json.put("ENABLED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(ENABLED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("ENABLED_SELECTED_STATE_SET", colorList.getColorForState(ENABLED_SELECTED_STATE_SET, 0));
-            json.put("ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("ENABLED_FOCUSED_STATE_SET", colorList.getColorForState(ENABLED_FOCUSED_STATE_SET, 0));
-            json.put("ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("ENABLED_FOCUSED_SELECTED_STATE_SET", colorList.getColorForState(ENABLED_FOCUSED_SELECTED_STATE_SET, 0));
-            json.put("ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_STATE_SET", colorList.getColorForState(PRESSED_STATE_SET, 0));
-            json.put("PRESSED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_SELECTED_STATE_SET", colorList.getColorForState(PRESSED_SELECTED_STATE_SET, 0));
-            json.put("PRESSED_SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_FOCUSED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_FOCUSED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_FOCUSED_SELECTED_STATE_SET", colorList.getColorForState(PRESSED_FOCUSED_SELECTED_STATE_SET, 0));
-            json.put("PRESSED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_SELECTED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_SELECTED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_FOCUSED_WINDOW_FOCUSED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_FOCUSED_SELECTED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_FOCUSED_SELECTED_STATE_SET, 0));
-            json.put("PRESSED_ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET", colorList.getColorForState(PRESSED_ENABLED_FOCUSED_SELECTED_WINDOW_FOCUSED_STATE_SET, 0));
+            json.put("stateSets", new JSONArray(Arrays.asList(COLOR_STATE_SET_NAMES)));
+            json.put("colors", m_colorStateLists);
         } catch (JSONException e) {
             e.printStackTrace();
         }
-
         return json;
     }
 
+    // Continues the color state lists of an existing style.json, so that the drawables
+    // refer to the same indices as the styles in it
+    private boolean readColorStateLists(File coreFile) {
+        try {
+            JSONObject core = new JSONObject(readFile(coreFile));
+            JSONArray colorStateLists =
+                    core.getJSONObject("colorStateLists").getJSONArray("colors");
+            for (int i = 0; i < colorStateLists.length(); ++i) {
+                JSONArray colors = colorStateLists.getJSONArray(i);
+                m_colorStateLists.put(colors);
+                m_colorStateListIndices.put(colors.toString(), i);
+            }
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            m_colorStateLists = new JSONArray();
+            m_colorStateListIndices.clear();
+            return false;
+        }
+    }
+
+    // Moves the drawables of a style into an object with the same structure, which is
+    // null if there are none. Only the drawables depend on the dpi then.
+    private static JSONObject takeDrawables(JSONObject json) throws JSONException {
+        JSONArray names = json.names();
+        if (names == null)
+            return null;
+
+        JSONObject drawables = null;
+        for (int i = 0; i < names.length(); ++i) {
+            String name = names.getString(i);
+            JSONObject value = json.optJSONObject(name);
+            if (value == null)
+                continue;
+            // All the drawables have a type, the objects containing them don't
+            JSONObject taken = value.has("type") ? value : takeDrawables(value);
+            if (taken == null)
+                continue;
+            if (taken == value)
+                json.remove(name);
+            if (drawables == null)
+                drawables = new JSONObject();
+            drawables.put(name, taken);
+        }
+        return drawables;
+    }
+
+    private float density() {
+        return m_context.getResources().getDisplayMetrics().density;
+    }
+
+    // Dimensions are written in dp, into the "dimensions" object next to them, so that they
+    // don't depend on the dpi. AndroidStyle turns them into pixels again for the density of
+    // the drawables, like getDimensionPixelSize() does. Default values are written as they are.
+    private void putDimension(JSONObject json, String name, TypedArray array, int index,
+                              int defValue) throws JSONException {
+        putDimension(json, name, dimensionValue(array, index),
+                     array.getDimensionPixelSize(index, defValue));
+    }
+
+    private void putDimension(JSONObject json, String name, TypedValue value, int pixels)
+            throws JSONException {
+        putScaledDimension(json, "dimensions", name, value, pixels);
+    }
+
+    // The same for getDimensionPixelOffset(), into "dimensionOffsets"
+    private void putDimensionOffset(JSONObject json, String name, TypedArray array, int index,
+                                    int defValue) throws JSONException {
+        putScaledDimension(json, "dimensionOffsets", name, dimensionValue(array, index),
+                           array.getDimensionPixelOffset(index, defValue));
+    }
+
+    private void putScaledDimension(JSONObject json, String group, String name, TypedValue value,
+                                    int pixels) throws JSONException {
+        // The last value put for a name wins, as with JSONObject.put()
+        json.remove(name);
+        for (String dimensionGroup : new String[]{ "dimensions", "dimensionOffsets" }) {
+            JSONObject dimensions = json.optJSONObject(dimensionGroup);
+            if (dimensions != null)
+                dimensions.remove(name);
+        }
+
+        if (value == null) {
+            json.put(name, pixels);
+            return;
+        }
+
+        JSONObject dimensions = json.optJSONObject(group);
+        if (dimensions == null) {
+            dimensions = new JSONObject();
+            json.put(group, dimensions);
+        }
+        DisplayMetrics metrics = m_context.getResources().getDisplayMetrics();
+        dimensions.put(name, value.getDimension(metrics) / metrics.density);
+    }
+
+    // The value of a dimension attribute which scales with the density, otherwise null
+    private static TypedValue dimensionValue(TypedArray array, int index) {
+        TypedValue value = new TypedValue();
+        if (!array.getValue(index, value) || value.type != TypedValue.TYPE_DIMENSION)
+            return null;
+        int unit = (value.data >> TypedValue.COMPLEX_UNIT_SHIFT) & TypedValue.COMPLEX_UNIT_MASK;
+        return unit == TypedValue.COMPLEX_UNIT_PX ? null : value;
+    }
+
     JSONObject getStatesList(int[] states) throws JSONException {
         JSONObject json = new JSONObject();
         for (int s : states) {
@@ -443,13 +1486,13 @@ public class ExtractStyle {
             JSONArray array = new JSONArray();
             final int numStates;
             if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q)
-                numStates = (Integer) StateListDrawable.class.getMethod("getStateCount").invoke(stateList);
+                numStates = (Integer) getMethod(StateListDrawable.class, "getStateCount").invoke(stateList);
             else
                 numStates = stateList.getStateCount();
             for (int i = 0; i < numStates; i++) {
                 JSONObject stateJson = new JSONObject();
-                final Drawable d = (Drawable) StateListDrawable.class.getMethod("getStateDrawable", Integer.TYPE).invoke(stateList, i);
-                final int[] states = (int[]) StateListDrawable.class.getMethod("getStateSet", Integer.TYPE).invoke(stateList, i);
+                final Drawable d = (Drawable) getMethod(StateListDrawable.class, "getStateDrawable", Integer.TYPE).invoke(stateList, i);
+                final int[] states = (int[]) getMethod(StateListDrawable.class, "getStateSet", Integer.TYPE).invoke(stateList, i);
                 if (states != null)
                     stateJson.put("states", getStatesList(states));
                 stateJson.put("drawable", getDrawable(d, filename + "__" + (states != null ? getStatesName(states) : ("state_pos_" + i)), null));
@@ -509,7 +1552,7 @@ public class ExtractStyle {
             json.put("type", "rotate");
             Object obj = drawable.getConstantState();
             Class<?> rotateStateClass = obj.getClass();
-            json.put("drawable", getDrawable(drawable.getClass().getMethod("getDrawable").invoke(drawable), filename, null));
+            json.put("drawable", getDrawable(getMethod(drawable.getClass(), "getDrawable").invoke(drawable), filename, null));
             json.put("pivotX", getAccessibleField(rotateStateClass, "mPivotX").getFloat(obj));
             json.put("pivotXRel", getAccessibleField(rotateStateClass, "mPivotXRel").getBoolean(obj));
             json.put("pivotY", getAccessibleField(rotateStateClass, "mPivotY").getFloat(obj));
@@ -588,7 +1631,16 @@ public class ExtractStyle {
             Object state = getAccessibleField(NinePatchDrawable.class, "mNinePatchState").get(d);
             np = (NinePatch) getAccessibleField(Objects.requireNonNull(state).getClass(), "mNinePatch").get(state);
         }
-        return getJsonChunkInfo(extractNativeChunkInfo20(getAccessibleField(Objects.requireNonNull(np).getClass(), "mNativeChunk").getLong(np)));
+        Objects.requireNonNull(np);
+
+        // Nine-patches sharing a bitmap share the same chunk
+        Bitmap bitmap = np.getBitmap();
+        JSONObject chunkInfo = m_chunkInfoCache.get(bitmap);
+        if (chunkInfo == null) {
+            chunkInfo = getJsonChunkInfo(extractNativeChunkInfo20(getAccessibleField(np.getClass(), "mNativeChunk").getLong(np)));
+            m_chunkInfoCache.put(bitmap, chunkInfo);
+        }
+        return chunkInfo;
     }
 
     private JSONObject getRippleDrawable(Object drawable, String filename, Rect padding) {
@@ -690,7 +1742,7 @@ public class ExtractStyle {
             }
             json.put("nodes", nodes);
         }
-        json.put("isClip", (Boolean) pathClass.getMethod("isClipPath").invoke(path));
+        json.put("isClip", (Boolean) getMethod(pathClass, "isClipPath").invoke(path));
 
         if (tryGetAccessibleField(pathClass, "mStrokeColor") == null)
             return json; // not VFullPath
@@ -788,10 +1840,10 @@ public class ExtractStyle {
                     json.put("gravity", bitmapDrawable.getGravity());
                     json.put("tileModeX", bitmapDrawable.getTileModeX());
                     json.put("tileModeY", bitmapDrawable.getTileModeY());
-                    json.put("antialias", (Boolean) BitmapDrawable.class.getMethod("hasAntiAlias").invoke(bitmapDrawable));
-                    json.put("mipMap", (Boolean) BitmapDrawable.class.getMethod("hasMipMap").invoke(bitmapDrawable));
-                    json.put("tintMode", (PorterDuff.Mode) BitmapDrawable.class.getMethod("getTintMode").invoke(bitmapDrawable));
-                    ColorStateList tintList = (ColorStateList) BitmapDrawable.class.getMethod("getTint").invoke(bitmapDrawable);
+                    json.put("antialias", (Boolean) getMethod(BitmapDrawable.class, "hasAntiAlias").invoke(bitmapDrawable));
+                    json.put("mipMap", (Boolean) getMethod(BitmapDrawable.class, "hasMipMap").invoke(bitmapDrawable));
+                    json.put("tintMode", (PorterDuff.Mode) getMethod(BitmapDrawable.class, "getTintMode").invoke(bitmapDrawable));
+                    ColorStateList tintList = (ColorStateList) getMethod(BitmapDrawable.class, "getTint").invoke(bitmapDrawable);
                     if (tintList != null)
                         json.put("tintList", getColorStateList(tintList));
                 } catch (Exception e) {
@@ -907,23 +1959,28 @@ public class ExtractStyle {
                 }
             }
         }
-        FileOutputStream out;
-        try {
-            filename = m_extractPath + filename + ".png";
-            out = new FileOutputStream(filename);
-            if (bmp != null)
-                bmp.compress(Bitmap.CompressFormat.PNG, 100, out);
-            out.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        String path = m_extractPath + filename + m_imageEncoder.fileSuffix();
+        if (bmp != null) {
+            // Hand the pixels over to the native style right away, encoding and
+            // writing the file is left to the image writer thread. Images are named
+            // after their content, so the ones which are the same for the other UI mode
+            // are written only once.
+            ByteBuffer pixels = StyleImageEncoder.toRawBuffer(bmp);
+            path = m_imagesPath + contentName(pixels) + m_imageEncoder.fileSuffix();
+            if (!new File(path).exists()) {
+                m_imageBuffers.put(path, pixels);
+                writeImageBehind(m_imageEncoder, bmp, pixels, path, m_extractPath);
+            }
         }
         try {
             json.put("type", "image");
-            json.put("path", filename);
+            json.put("path", path);
             if (bmp != null) {
                 json.put("width", bmp.getWidth());
                 json.put("height", bmp.getHeight());
             }
+            // Keyed by the drawable name, like the lookup above, the image path
+            // is only known once the pixels are rendered
             m_drawableCache.put(filename, new DrawableCache(json, drawable));
         } catch (JSONException e) {
             e.printStackTrace();
@@ -939,13 +1996,6 @@ public class ExtractStyle {
         return ctx.obtainStyledAttributes(typedValue.data, attributes);
     }
 
-    private ArrayList<Integer> getArrayListFromIntArray(int[] attributes) {
-        ArrayList<Integer> sortedAttrs = new ArrayList<>();
-        for (int attr : attributes)
-            sortedAttrs.add(attr);
-        return sortedAttrs;
-    }
-
     public void extractViewInformation(int styleName, JSONObject json, String qtClassName) {
         extractViewInformation(styleName, json, qtClassName, null);
     }
@@ -956,64 +2006,13 @@ public class ExtractStyle {
             Context ctx = new ContextThemeWrapper(m_context, m_theme);
             ctx.getTheme().resolveAttribute(styleName, typedValue, true);
 
-            int[] attributes = new int[]{
-                    android.R.attr.digits,
-                    android.R.attr.background,
-                    android.R.attr.padding,
-                    android.R.attr.paddingLeft,
-                    android.R.attr.paddingTop,
-                    android.R.attr.paddingRight,
-                    android.R.attr.paddingBottom,
-                    android.R.attr.scrollX,
-                    android.R.attr.scrollY,
-                    android.R.attr.id,
-                    android.R.attr.tag,
-                    android.R.attr.fitsSystemWindows,
-                    android.R.attr.focusable,
-                    android.R.attr.focusableInTouchMode,
-                    android.R.attr.clickable,
-                    android.R.attr.longClickable,
-                    android.R.attr.saveEnabled,
-                    android.R.attr.duplicateParentState,
-                    android.R.attr.visibility,
-                    android.R.attr.drawingCacheQuality,
-                    android.R.attr.contentDescription,
-                    android.R.attr.soundEffectsEnabled,
-                    android.R.attr.hapticFeedbackEnabled,
-                    android.R.attr.scrollbars,
-                    android.R.attr.fadingEdge,
-                    android.R.attr.scrollbarStyle,
-                    android.R.attr.scrollbarFadeDuration,
-                    android.R.attr.scrollbarDefaultDelayBeforeFade,
-                    android.R.attr.scrollbarSize,
-                    android.R.attr.scrollbarThumbHorizontal,
-                    android.R.attr.scrollbarThumbVertical,
-                    android.R.attr.scrollbarTrackHorizontal,
-                    android.R.attr.scrollbarTrackVertical,
-                    android.R.attr.isScrollContainer,
-                    android.R.attr.keepScreenOn,
-                    android.R.attr.filterTouchesWhenObscured,
-                    android.R.attr.nextFocusLeft,
-                    android.R.attr.nextFocusRight,
-                    android.R.attr.nextFocusUp,
-                    android.R.attr.nextFocusDown,
-                    android.R.attr.minWidth,
-                    android.R.attr.minHeight,
-                    android.R.attr.onClick,
-                    android.R.attr.overScrollMode,
-                    android.R.attr.paddingStart,
-                    android.R.attr.paddingEnd,
-            };
-
-            // The array must be sorted in ascending order, otherwise obtainStyledAttributes()
-            // might fail to find some attributes
-            Arrays.sort(attributes);
+            final int[] attributes = VIEW_ATTRIBUTES.attributes;
             TypedArray array;
             if (attributeSet != null)
                 array = m_theme.obtainStyledAttributes(attributeSet, attributes, styleName, 0);
             else
                 array = obtainStyledAttributes(styleName, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
+            AttributeIndex sortedAttrs = VIEW_ATTRIBUTES;
 
             if (null != qtClassName)
                 json.put("qtClass", qtClassName);
@@ -1022,13 +2021,13 @@ public class ExtractStyle {
             json.put("defaultTextColorPrimary", defaultTextColor);
             json.put("TextView_digits", array.getText(sortedAttrs.indexOf(android.R.attr.digits)));
             json.put("View_background", getDrawable(array.getDrawable(sortedAttrs.indexOf(android.R.attr.background)), styleName + "_View_background", null));
-            json.put("View_padding", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.padding), -1));
-            json.put("View_paddingLeft", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.paddingLeft), -1));
-            json.put("View_paddingTop", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.paddingTop), -1));
-            json.put("View_paddingRight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.paddingRight), -1));
-            json.put("View_paddingBottom", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.paddingBottom), -1));
-            json.put("View_paddingBottom", array.getDimensionPixelOffset(sortedAttrs.indexOf(android.R.attr.scrollX), 0));
-            json.put("View_scrollY", array.getDimensionPixelOffset(sortedAttrs.indexOf(android.R.attr.scrollY), 0));
+            putDimension(json, "View_padding", array, sortedAttrs.indexOf(android.R.attr.padding), -1);
+            putDimension(json, "View_paddingLeft", array, sortedAttrs.indexOf(android.R.attr.paddingLeft), -1);
+            putDimension(json, "View_paddingTop", array, sortedAttrs.indexOf(android.R.attr.paddingTop), -1);
+            putDimension(json, "View_paddingRight", array, sortedAttrs.indexOf(android.R.attr.paddingRight), -1);
+            putDimension(json, "View_paddingBottom", array, sortedAttrs.indexOf(android.R.attr.paddingBottom), -1);
+            putDimensionOffset(json, "View_paddingBottom", array, sortedAttrs.indexOf(android.R.attr.scrollX), 0);
+            putDimensionOffset(json, "View_scrollY", array, sortedAttrs.indexOf(android.R.attr.scrollY), 0);
             json.put("View_id", array.getResourceId(sortedAttrs.indexOf(android.R.attr.id), -1));
             json.put("View_tag", array.getText(sortedAttrs.indexOf(android.R.attr.tag)));
             json.put("View_fitsSystemWindows", array.getBoolean(sortedAttrs.indexOf(android.R.attr.fitsSystemWindows), false));
@@ -1048,7 +2047,7 @@ public class ExtractStyle {
             json.put("View_scrollbarStyle", array.getInt(sortedAttrs.indexOf(android.R.attr.scrollbarStyle), 0));
             json.put("View_scrollbarFadeDuration", array.getInt(sortedAttrs.indexOf(android.R.attr.scrollbarFadeDuration), 0));
             json.put("View_scrollbarDefaultDelayBeforeFade", array.getInt(sortedAttrs.indexOf(android.R.attr.scrollbarDefaultDelayBeforeFade), 0));
-            json.put("View_scrollbarSize", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.scrollbarSize), -1));
+            putDimension(json, "View_scrollbarSize", array, sortedAttrs.indexOf(android.R.attr.scrollbarSize), -1);
             json.put("View_scrollbarThumbHorizontal", getDrawable(array.getDrawable(sortedAttrs.indexOf(android.R.attr.scrollbarThumbHorizontal)), styleName + "_View_scrollbarThumbHorizontal", null));
             json.put("View_scrollbarThumbVertical", getDrawable(array.getDrawable(sortedAttrs.indexOf(android.R.attr.scrollbarThumbVertical)), styleName + "_View_scrollbarThumbVertical", null));
             json.put("View_scrollbarTrackHorizontal", getDrawable(array.getDrawable(sortedAttrs.indexOf(android.R.attr.scrollbarTrackHorizontal)), styleName + "_View_scrollbarTrackHorizontal", null));
@@ -1060,12 +2059,12 @@ public class ExtractStyle {
             json.put("View_nextFocusRight", array.getResourceId(sortedAttrs.indexOf(android.R.attr.nextFocusRight), -1));
             json.put("View_nextFocusUp", array.getResourceId(sortedAttrs.indexOf(android.R.attr.nextFocusUp), -1));
             json.put("View_nextFocusDown", array.getResourceId(sortedAttrs.indexOf(android.R.attr.nextFocusDown), -1));
-            json.put("View_minWidth", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.minWidth), 0));
-            json.put("View_minHeight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.minHeight), 0));
+            putDimension(json, "View_minWidth", array, sortedAttrs.indexOf(android.R.attr.minWidth), 0);
+            putDimension(json, "View_minHeight", array, sortedAttrs.indexOf(android.R.attr.minHeight), 0);
             json.put("View_onClick", array.getString(sortedAttrs.indexOf(android.R.attr.onClick)));
             json.put("View_overScrollMode", array.getInt(sortedAttrs.indexOf(android.R.attr.overScrollMode), 1));
-            json.put("View_paddingStart", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.paddingStart), 0));
-            json.put("View_paddingEnd", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.paddingEnd), 0));
+            putDimension(json, "View_paddingStart", array, sortedAttrs.indexOf(android.R.attr.paddingStart), 0);
+            putDimension(json, "View_paddingEnd", array, sortedAttrs.indexOf(android.R.attr.paddingEnd), 0);
             array.recycle();
         } catch (Exception e) {
             e.printStackTrace();
@@ -1080,28 +2079,18 @@ public class ExtractStyle {
     @SuppressLint("ResourceType")
     public JSONObject extractTextAppearance(int styleName, boolean subStyle)
     {
-        final int[] attributes = new int[]{
-                android.R.attr.textSize,
-                android.R.attr.textStyle,
-                android.R.attr.textColor,
-                android.R.attr.typeface,
-                android.R.attr.textAllCaps,
-                android.R.attr.textColorHint,
-                android.R.attr.textColorLink,
-                android.R.attr.textColorHighlight
-        };
-        Arrays.sort(attributes);
+        final int[] attributes = TEXT_APPEARANCE_ATTRIBUTES.attributes;
         TypedArray array;
         if (subStyle)
             array = m_theme.obtainStyledAttributes(styleName, attributes);
         else
             array = obtainStyledAttributes(styleName, attributes);
-        ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
+        AttributeIndex sortedAttrs = TEXT_APPEARANCE_ATTRIBUTES;
         JSONObject json = new JSONObject();
         try {
             int attr = sortedAttrs.indexOf(android.R.attr.textSize);
             if (array.hasValue(attr))
-                json.put("TextAppearance_textSize", array.getDimensionPixelSize(attr, 15));
+                putDimension(json, "TextAppearance_textSize", array, attr, 15);
             attr = sortedAttrs.indexOf(android.R.attr.textStyle);
             if (array.hasValue(attr))
                 json.put("TextAppearance_textStyle", array.getInt(attr, -1));
@@ -1157,24 +2146,20 @@ public class ExtractStyle {
             textAppearanceArray.recycle();
 
             int textSize = 15;
+            TypedValue textSizeValue = null;
             int styleIndex = -1;
             int typefaceIndex = -1;
             int textColorHighlight = 0;
             boolean allCaps = false;
 
             if (textAppearanceId != -1) {
-                int[] attributes = new int[]{
-                        android.R.attr.textSize,
-                        android.R.attr.textStyle,
-                        android.R.attr.typeface,
-                        android.R.attr.textAllCaps,
-                        android.R.attr.textColorHighlight
-                };
-                Arrays.sort(attributes);
+                final int[] attributes = TEXT_APPEARANCE_STYLE_ATTRIBUTES.attributes;
                 TypedArray array = m_theme.obtainStyledAttributes(textAppearanceId, attributes);
-                ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
+                AttributeIndex sortedAttrs = TEXT_APPEARANCE_STYLE_ATTRIBUTES;
 
-                textSize = array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.textSize), 15);
+                int textSizeIndex = sortedAttrs.indexOf(android.R.attr.textSize);
+                textSize = array.getDimensionPixelSize(textSizeIndex, 15);
+                textSizeValue = dimensionValue(array, textSizeIndex);
                 styleIndex = array.getInt(sortedAttrs.indexOf(android.R.attr.textStyle), -1);
                 typefaceIndex = array.getInt(sortedAttrs.indexOf(android.R.attr.typeface), -1);
                 textColorHighlight = array.getColor(sortedAttrs.indexOf(android.R.attr.textColorHighlight), 0);
@@ -1182,84 +2167,15 @@ public class ExtractStyle {
                 array.recycle();
             }
             // Get TextView values
-            int[] attributes = new int[]{
-                    android.R.attr.editable,
-                    android.R.attr.inputMethod,
-                    android.R.attr.numeric,
-                    android.R.attr.digits,
-                    android.R.attr.phoneNumber,
-                    android.R.attr.autoText,
-                    android.R.attr.capitalize,
-                    android.R.attr.bufferType,
-                    android.R.attr.selectAllOnFocus,
-                    android.R.attr.autoLink,
-                    android.R.attr.linksClickable,
-                    android.R.attr.drawableLeft,
-                    android.R.attr.drawableTop,
-                    android.R.attr.drawableRight,
-                    android.R.attr.drawableBottom,
-                    android.R.attr.drawableStart,
-                    android.R.attr.drawableEnd,
-                    android.R.attr.maxLines,
-                    android.R.attr.drawablePadding,
-                    android.R.attr.textCursorDrawable,
-                    android.R.attr.maxHeight,
-                    android.R.attr.lines,
-                    android.R.attr.height,
-                    android.R.attr.minLines,
-                    android.R.attr.minHeight,
-                    android.R.attr.maxEms,
-                    android.R.attr.maxWidth,
-                    android.R.attr.ems,
-                    android.R.attr.width,
-                    android.R.attr.minEms,
-                    android.R.attr.minWidth,
-                    android.R.attr.gravity,
-                    android.R.attr.hint,
-                    android.R.attr.text,
-                    android.R.attr.scrollHorizontally,
-                    android.R.attr.singleLine,
-                    android.R.attr.ellipsize,
-                    android.R.attr.marqueeRepeatLimit,
-                    android.R.attr.includeFontPadding,
-                    android.R.attr.cursorVisible,
-                    android.R.attr.maxLength,
-                    android.R.attr.textScaleX,
-                    android.R.attr.freezesText,
-                    android.R.attr.shadowColor,
-                    android.R.attr.shadowDx,
-                    android.R.attr.shadowDy,
-                    android.R.attr.shadowRadius,
-                    android.R.attr.enabled,
-                    android.R.attr.textColorHighlight,
-                    android.R.attr.textColor,
-                    android.R.attr.textColorHint,
-                    android.R.attr.textColorLink,
-                    android.R.attr.textSize,
-                    android.R.attr.typeface,
-                    android.R.attr.textStyle,
-                    android.R.attr.password,
-                    android.R.attr.lineSpacingExtra,
-                    android.R.attr.lineSpacingMultiplier,
-                    android.R.attr.inputType,
-                    android.R.attr.imeOptions,
-                    android.R.attr.imeActionLabel,
-                    android.R.attr.imeActionId,
-                    android.R.attr.privateImeOptions,
-                    android.R.attr.textSelectHandleLeft,
-                    android.R.attr.textSelectHandleRight,
-                    android.R.attr.textSelectHandle,
-                    android.R.attr.textIsSelectable,
-                    android.R.attr.textAllCaps
-            };
-
-            // The array must be sorted in ascending order, otherwise obtainStyledAttributes()
-            // might fail to find some attributes
-            Arrays.sort(attributes);
+            final int[] attributes = TEXT_VIEW_ATTRIBUTES.attributes;
             TypedArray array = ctx.obtainStyledAttributes(typedValue.data, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
+            AttributeIndex sortedAttrs = TEXT_VIEW_ATTRIBUTES;
 
-            textSize = array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.textSize), textSize);
+            int textSizeIndex = sortedAttrs.indexOf(android.R.attr.textSize);
+            if (array.hasValue(textSizeIndex)) {
+                textSize = array.getDimensionPixelSize(textSizeIndex, textSize);
+                textSizeValue = dimensionValue(array, textSizeIndex);
+            }
             styleIndex = array.getInt(sortedAttrs.indexOf(android.R.attr.textStyle), styleIndex);
             typefaceIndex = array.getInt(sortedAttrs.indexOf(android.R.attr.typeface), typefaceIndex);
             textColorHighlight = array.getColor(sortedAttrs.indexOf(android.R.attr.textColorHighlight), textColorHighlight);
@@ -1269,7 +2185,7 @@ public class ExtractStyle {
             ColorStateList textColorHint = array.getColorStateList(sortedAttrs.indexOf(android.R.attr.textColorHint));
             ColorStateList textColorLink = array.getColorStateList(sortedAttrs.indexOf(android.R.attr.textColorLink));
 
-            json.put("TextAppearance_textSize", textSize);
+            putDimension(json, "TextAppearance_textSize", textSizeValue, textSize);
             json.put("TextAppearance_textStyle", styleIndex);
             json.put("TextAppearance_typeface", typefaceIndex);
             json.put("TextAppearance_textColorHighlight", textColorHighlight);
@@ -1299,7 +2215,7 @@ public class ExtractStyle {
             json.put("TextView_drawableStart", getDrawable(array.getDrawable(sortedAttrs.indexOf(android.R.attr.drawableStart)), styleName + "_TextView_drawableStart", null));
             json.put("TextView_drawableEnd", getDrawable(array.getDrawable(sortedAttrs.indexOf(android.R.attr.drawableEnd)), styleName + "_TextView_drawableEnd", null));
             json.put("TextView_maxLines", array.getInt(sortedAttrs.indexOf(android.R.attr.maxLines), -1));
-            json.put("TextView_drawablePadding", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.drawablePadding), 0));
+            putDimension(json, "TextView_drawablePadding", array, sortedAttrs.indexOf(android.R.attr.drawablePadding), 0);
 
             try {
                 json.put("TextView_textCursorDrawable", getDrawable(array.getDrawable(sortedAttrs.indexOf(android.R.attr.textCursorDrawable)), styleName + "_TextView_textCursorDrawable", null));
@@ -1308,17 +2224,17 @@ public class ExtractStyle {
             }
 
             json.put("TextView_maxLines", array.getInt(sortedAttrs.indexOf(android.R.attr.maxLines), -1));
-            json.put("TextView_maxHeight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.maxHeight), -1));
+            putDimension(json, "TextView_maxHeight", array, sortedAttrs.indexOf(android.R.attr.maxHeight), -1);
             json.put("TextView_lines", array.getInt(sortedAttrs.indexOf(android.R.attr.lines), -1));
-            json.put("TextView_height", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.height), -1));
+            putDimension(json, "TextView_height", array, sortedAttrs.indexOf(android.R.attr.height), -1);
             json.put("TextView_minLines", array.getInt(sortedAttrs.indexOf(android.R.attr.minLines), -1));
-            json.put("TextView_minHeight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.minHeight), -1));
+            putDimension(json, "TextView_minHeight", array, sortedAttrs.indexOf(android.R.attr.minHeight), -1);
             json.put("TextView_maxEms", array.getInt(sortedAttrs.indexOf(android.R.attr.maxEms), -1));
-            json.put("TextView_maxWidth", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.maxWidth), -1));
+            putDimension(json, "TextView_maxWidth", array, sortedAttrs.indexOf(android.R.attr.maxWidth), -1);
             json.put("TextView_ems", array.getInt(sortedAttrs.indexOf(android.R.attr.ems), -1));
-            json.put("TextView_width", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.width), -1));
+            putDimension(json, "TextView_width", array, sortedAttrs.indexOf(android.R.attr.width), -1);
             json.put("TextView_minEms", array.getInt(sortedAttrs.indexOf(android.R.attr.minEms), -1));
-            json.put("TextView_minWidth", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.minWidth), -1));
+            putDimension(json, "TextView_minWidth", array, sortedAttrs.indexOf(android.R.attr.minWidth), -1);
             json.put("TextView_gravity", array.getInt(sortedAttrs.indexOf(android.R.attr.gravity), -1));
             json.put("TextView_hint", array.getText(sortedAttrs.indexOf(android.R.attr.hint)));
             json.put("TextView_text", array.getText(sortedAttrs.indexOf(android.R.attr.text)));
@@ -1337,7 +2253,7 @@ public class ExtractStyle {
             json.put("TextView_shadowRadius", array.getFloat(sortedAttrs.indexOf(android.R.attr.shadowRadius), 0));
             json.put("TextView_enabled", array.getBoolean(sortedAttrs.indexOf(android.R.attr.enabled), true));
             json.put("TextView_password", array.getBoolean(sortedAttrs.indexOf(android.R.attr.password), false));
-            json.put("TextView_lineSpacingExtra", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.lineSpacingExtra), 0));
+            putDimension(json, "TextView_lineSpacingExtra", array, sortedAttrs.indexOf(android.R.attr.lineSpacingExtra), 0);
             json.put("TextView_lineSpacingMultiplier", array.getFloat(sortedAttrs.indexOf(android.R.attr.lineSpacingMultiplier), 1.0f));
             json.put("TextView_inputType", array.getInt(sortedAttrs.indexOf(android.R.attr.inputType), EditorInfo.TYPE_NULL));
             json.put("TextView_imeOptions", array.getInt(sortedAttrs.indexOf(android.R.attr.imeOptions), EditorInfo.IME_NULL));
@@ -1386,9 +2302,8 @@ public class ExtractStyle {
                     android.R.attr.tint
 
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(styleName, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable drawable = array.getDrawable(sortedAttrs.indexOf(android.R.attr.src));
             if (drawable != null)
@@ -1396,8 +2311,8 @@ public class ExtractStyle {
 
             json.put("ImageView_baselineAlignBottom", array.getBoolean(sortedAttrs.indexOf(android.R.attr.baselineAlignBottom), false));
             json.put("ImageView_adjustViewBounds", array.getBoolean(sortedAttrs.indexOf(android.R.attr.baselineAlignBottom), false));
-            json.put("ImageView_maxWidth", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.maxWidth), Integer.MAX_VALUE));
-            json.put("ImageView_maxHeight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.maxHeight), Integer.MAX_VALUE));
+            putDimension(json, "ImageView_maxWidth", array, sortedAttrs.indexOf(android.R.attr.maxWidth), Integer.MAX_VALUE);
+            putDimension(json, "ImageView_maxHeight", array, sortedAttrs.indexOf(android.R.attr.maxHeight), Integer.MAX_VALUE);
             int index = array.getInt(sortedAttrs.indexOf(android.R.attr.scaleType), -1);
             if (index >= 0)
                 json.put("ImageView_scaleType", sScaleTypeArray[index]);
@@ -1414,7 +2329,7 @@ public class ExtractStyle {
         return json;
     }
 
-    void extractCompoundButton(SimpleJsonWriter jsonWriter, int styleName, String className, String qtClass) {
+    JSONObject extractCompoundButton(int styleName, String qtClass) {
         JSONObject json = extractTextAppearanceInformation(styleName, qtClass);
 
         TypedValue typedValue = new TypedValue();
@@ -1428,10 +2343,11 @@ public class ExtractStyle {
         try {
             if (drawable != null)
                 json.put("CompoundButton_button", getDrawable(drawable, styleName + "_CompoundButton_button", null));
-            jsonWriter.name(className).value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
     void extractProgressBarInfo(JSONObject json, int styleName) {
@@ -1446,17 +2362,14 @@ public class ExtractStyle {
                     android.R.attr.indeterminateDrawable
             };
 
-            // The array must be sorted in ascending order, otherwise obtainStyledAttributes()
-            // might fail to find some attributes
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(styleName, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             json.put("ProgressBar_indeterminateDuration", array.getInt(sortedAttrs.indexOf(android.R.attr.indeterminateDuration), 4000));
-            json.put("ProgressBar_minWidth", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.minWidth), 24));
-            json.put("ProgressBar_maxWidth", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.maxWidth), 48));
-            json.put("ProgressBar_minHeight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.minHeight), 24));
-            json.put("ProgressBar_maxHeight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.maxHeight), 28));
+            putDimension(json, "ProgressBar_minWidth", array, sortedAttrs.indexOf(android.R.attr.minWidth), 24);
+            putDimension(json, "ProgressBar_maxWidth", array, sortedAttrs.indexOf(android.R.attr.maxWidth), 48);
+            putDimension(json, "ProgressBar_minHeight", array, sortedAttrs.indexOf(android.R.attr.minHeight), 24);
+            putDimension(json, "ProgressBar_maxHeight", array, sortedAttrs.indexOf(android.R.attr.maxHeight), 28);
             json.put("ProgressBar_progress_id", android.R.id.progress);
             json.put("ProgressBar_secondaryProgress_id", android.R.id.secondaryProgress);
 
@@ -1476,17 +2389,18 @@ public class ExtractStyle {
         }
     }
 
-    void extractProgressBar(SimpleJsonWriter writer, int styleName, String className, String qtClass) {
+    JSONObject extractProgressBar(int styleName, String qtClass) {
         JSONObject json = extractTextAppearanceInformation(android.R.attr.progressBarStyle, qtClass);
         try {
             extractProgressBarInfo(json, styleName);
-            writer.name(className).value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
-    void extractAbsSeekBar(SimpleJsonWriter jsonWriter) {
+    JSONObject extractAbsSeekBar() {
         JSONObject json = extractTextAppearanceInformation(android.R.attr.seekBarStyle, "QSlider");
         extractProgressBarInfo(json, android.R.attr.seekBarStyle);
         try {
@@ -1494,22 +2408,22 @@ public class ExtractStyle {
                     android.R.attr.thumb,
                     android.R.attr.thumbOffset
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.seekBarStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable d = array.getDrawable(sortedAttrs.indexOf(android.R.attr.thumb));
             if (d != null)
                 json.put("SeekBar_thumb", getDrawable(d, android.R.attr.seekBarStyle + "_SeekBar_thumb", null));
-            json.put("SeekBar_thumbOffset", array.getDimensionPixelOffset(sortedAttrs.indexOf(android.R.attr.thumbOffset), -1));
+            putDimensionOffset(json, "SeekBar_thumbOffset", array, sortedAttrs.indexOf(android.R.attr.thumbOffset), -1);
             array.recycle();
-            jsonWriter.name("seekBarStyle").value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
-    void extractSwitch(SimpleJsonWriter jsonWriter) {
+    JSONObject extractSwitch() {
         JSONObject json = new JSONObject();
         try {
             int[] attributes = new int[]{
@@ -1524,9 +2438,8 @@ public class ExtractStyle {
                     android.R.attr.showText,
                     android.R.attr.splitTrack
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.switchStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable thumb = array.getDrawable(sortedAttrs.indexOf(android.R.attr.thumb));
             if (thumb != null)
@@ -1538,9 +2451,9 @@ public class ExtractStyle {
 
             json.put("Switch_textOn", array.getText(sortedAttrs.indexOf(android.R.attr.textOn)));
             json.put("Switch_textOff", array.getText(sortedAttrs.indexOf(android.R.attr.textOff)));
-            json.put("Switch_switchMinWidth", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.switchMinWidth), 0));
-            json.put("Switch_switchPadding", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.switchPadding), 0));
-            json.put("Switch_thumbTextPadding", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.thumbTextPadding), 0));
+            putDimension(json, "Switch_switchMinWidth", array, sortedAttrs.indexOf(android.R.attr.switchMinWidth), 0);
+            putDimension(json, "Switch_switchPadding", array, sortedAttrs.indexOf(android.R.attr.switchPadding), 0);
+            putDimension(json, "Switch_thumbTextPadding", array, sortedAttrs.indexOf(android.R.attr.thumbTextPadding), 0);
             json.put("Switch_showText", array.getBoolean(sortedAttrs.indexOf(android.R.attr.showText), true));
             json.put("Switch_splitTrack", array.getBoolean(sortedAttrs.indexOf(android.R.attr.splitTrack), false));
 
@@ -1549,10 +2462,11 @@ public class ExtractStyle {
             json.put("Switch_switchTextAppearance", extractTextAppearance(textAppearanceId, true));
 
             array.recycle();
-            jsonWriter.name("switchStyle").value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
     JSONObject extractCheckedTextView(String itemName) {
@@ -1562,9 +2476,8 @@ public class ExtractStyle {
                     android.R.attr.checkMark,
             };
 
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.switchStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable drawable = array.getDrawable(sortedAttrs.indexOf(android.R.attr.checkMark));
             if (drawable != null)
@@ -1599,62 +2512,31 @@ public class ExtractStyle {
         return null;
     }
 
-    private void extractItemsStyle(SimpleJsonWriter jsonWriter) {
-        try {
-            JSONObject itemStyle = extractItemStyle(android.R.layout.simple_list_item_1, "simple_list_item");
-            if (itemStyle != null)
-                jsonWriter.name("simple_list_item").value(itemStyle);
-            itemStyle = extractItemStyle(android.R.layout.simple_list_item_checked, "simple_list_item_checked");
-            if (itemStyle != null)
-                jsonWriter.name("simple_list_item_checked").value(itemStyle);
-            itemStyle = extractItemStyle(android.R.layout.simple_list_item_multiple_choice, "simple_list_item_multiple_choice");
-            if (itemStyle != null)
-                jsonWriter.name("simple_list_item_multiple_choice").value(itemStyle);
-            itemStyle = extractItemStyle(android.R.layout.simple_list_item_single_choice, "simple_list_item_single_choice");
-            if (itemStyle != null)
-                jsonWriter.name("simple_list_item_single_choice").value(itemStyle);
-            itemStyle = extractItemStyle(android.R.layout.simple_spinner_item, "simple_spinner_item");
-            if (itemStyle != null)
-                jsonWriter.name("simple_spinner_item").value(itemStyle);
-            itemStyle = extractItemStyle(android.R.layout.simple_spinner_dropdown_item, "simple_spinner_dropdown_item");
-            if (itemStyle != null)
-                jsonWriter.name("simple_spinner_dropdown_item").value(itemStyle);
-            itemStyle = extractItemStyle(android.R.layout.simple_dropdown_item_1line, "simple_dropdown_item_1line");
-            if (itemStyle != null)
-                jsonWriter.name("simple_dropdown_item_1line").value(itemStyle);
-            itemStyle = extractItemStyle(android.R.layout.simple_selectable_list_item, "simple_selectable_list_item");
-            if (itemStyle != null)
-                jsonWriter.name("simple_selectable_list_item").value(itemStyle);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    void extractListView(SimpleJsonWriter writer) {
+    JSONObject extractListView() {
         JSONObject json = extractTextAppearanceInformation(android.R.attr.listViewStyle, "QListView");
         try {
             int[] attributes = new int[]{
                     android.R.attr.divider,
                     android.R.attr.dividerHeight
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.listViewStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable divider = array.getDrawable(sortedAttrs.indexOf(android.R.attr.divider));
             if (divider != null)
                 json.put("ListView_divider", getDrawable(divider, android.R.attr.listViewStyle + "_ListView_divider", null));
 
-            json.put("ListView_dividerHeight", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.dividerHeight), 0));
+            putDimension(json, "ListView_dividerHeight", array, sortedAttrs.indexOf(android.R.attr.dividerHeight), 0);
 
             array.recycle();
-            writer.name("listViewStyle").value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
-    void extractCalendar(SimpleJsonWriter writer) {
+    JSONObject extractCalendar() {
         JSONObject json = extractTextAppearanceInformation(android.R.attr.calendarViewStyle, "QCalendarWidget");
         try {
             int[] attributes = new int[]{
@@ -1670,9 +2552,8 @@ public class ExtractStyle {
                     android.R.attr.dateTextAppearance,
                     android.R.attr.weekDayTextAppearance
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.calendarViewStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable d = array.getDrawable(sortedAttrs.indexOf(android.R.attr.selectedDateVerticalBar));
             if (d != null)
@@ -1693,13 +2574,14 @@ public class ExtractStyle {
             json.put("CalendarView_weekNumberColor", array.getColor(sortedAttrs.indexOf(android.R.attr.weekNumberColor), 0));
             json.put("CalendarView_weekSeparatorLineColor", array.getColor(sortedAttrs.indexOf(android.R.attr.weekSeparatorLineColor), 0));
             array.recycle();
-            writer.name("calendarViewStyle").value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
-    void extractToolBar(SimpleJsonWriter writer) {
+    JSONObject extractToolBar() {
         JSONObject json = extractTextAppearanceInformation(android.R.attr.toolbarStyle, "QToolBar");
         try {
             int[] attributes = new int[]{
@@ -1709,9 +2591,8 @@ public class ExtractStyle {
                     android.R.attr.divider,
                     android.R.attr.itemPadding
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.toolbarStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable d = array.getDrawable(sortedAttrs.indexOf(android.R.attr.background));
             if (d != null)
@@ -1729,16 +2610,17 @@ public class ExtractStyle {
             if (d != null)
                 json.put("ActionBar_divider", getDrawable(d, android.R.attr.toolbarStyle + "_ActionBar_divider", null));
 
-            json.put("ActionBar_itemPadding", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.itemPadding), 0));
+            putDimension(json, "ActionBar_itemPadding", array, sortedAttrs.indexOf(android.R.attr.itemPadding), 0);
 
             array.recycle();
-            writer.name("actionBarStyle").value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
-    void extractTabBar(SimpleJsonWriter writer) {
+    JSONObject extractTabBar() {
         JSONObject json = extractTextAppearanceInformation(android.R.attr.actionBarTabBarStyle, "QTabBar");
         try {
             int[] attributes = new int[]{
@@ -1746,33 +2628,32 @@ public class ExtractStyle {
                     android.R.attr.dividerPadding,
                     android.R.attr.divider
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.actionBarTabStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable d = array.getDrawable(sortedAttrs.indexOf(android.R.attr.divider));
             if (d != null)
                 json.put("LinearLayout_divider", getDrawable(d, android.R.attr.actionBarTabStyle + "_LinearLayout_divider", null));
             json.put("LinearLayout_showDividers", array.getInt(sortedAttrs.indexOf(android.R.attr.showDividers), 0));
-            json.put("LinearLayout_dividerPadding", array.getDimensionPixelSize(sortedAttrs.indexOf(android.R.attr.dividerPadding), 0));
+            putDimension(json, "LinearLayout_dividerPadding", array, sortedAttrs.indexOf(android.R.attr.dividerPadding), 0);
 
             array.recycle();
-            writer.name("actionBarTabBarStyle").value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
-    private void extractWindow(SimpleJsonWriter writer) {
+    private JSONObject extractWindow() {
         JSONObject json = new JSONObject();
         try {
             int[] attributes = new int[]{
                     android.R.attr.windowBackground,
                     android.R.attr.windowFrame
             };
-            Arrays.sort(attributes);
+            AttributeIndex sortedAttrs = new AttributeIndex(attributes);
             TypedArray array = obtainStyledAttributes(android.R.attr.popupWindowStyle, attributes);
-            ArrayList<Integer> sortedAttrs = getArrayListFromIntArray(attributes);
 
             Drawable background = array.getDrawable(sortedAttrs.indexOf(android.R.attr.windowBackground));
             if (background != null)
@@ -1782,10 +2663,11 @@ public class ExtractStyle {
             if (frame != null)
                 json.put("Window_windowFrame", getDrawable(frame, android.R.attr.popupWindowStyle + "_Window_windowFrame", null));
             array.recycle();
-            writer.name("windowStyle").value(json);
+            return json;
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return null;
     }
 
     private JSONObject extractDefaultPalette() {
@@ -1844,6 +2726,28 @@ public class ExtractStyle {
         void value(JSONObject value) throws IOException {
             m_writer.write(value.toString());
         }
+
+        void value(float value) throws IOException {
+            m_writer.write(Float.toString(value));
+        }
+    }
+
+    // Maps an attribute to its index in a sorted attribute set, which is also
+    // its index in the TypedArray obtained for that set.
+    static class AttributeIndex {
+        final int[] attributes;
+
+        AttributeIndex(int[] attributes) {
+            // The array must be sorted in ascending order, otherwise obtainStyledAttributes()
+            // might fail to find some attributes
+            Arrays.sort(attributes);
+            this.attributes = attributes;
+        }
+
+        int indexOf(int attribute) {
+            int index = Arrays.binarySearch(attributes, attribute);
+            return index < 0 ? -1 : index;
+        }
     }
 
     static class DrawableCache {
@@ -185,6 +185,9 @@ public class QtActivityBase extends Activity
     @Override
     public boolean dispatchKeyEvent(KeyEvent event)
     {
+        if (QtInputLatency.isEnabled())
+            QtInputLatency.record(QtInputLatency.KEY, QtInputLatency.ENTRY, event.getEventTime());
+
         if (m_delegate.isStarted() && m_delegate.getInputDelegate().handleDispatchKeyEvent(event))
             return true;
 
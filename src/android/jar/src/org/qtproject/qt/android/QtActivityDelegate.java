@@ -239,10 +239,14 @@ public class QtActivityDelegate
                 : m_activity.getDisplay().getRefreshRate();
         QtDisplayManager.handleRefreshRateChanged(refreshRate);
 
+        if (QtInputDelegate.useImeInsets())
+            m_inputDelegate.trackImeInsets(m_activity, m_layout);
+
         m_layout.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
             @Override
             public boolean onPreDraw() {
-                if (!m_inputDelegate.isKeyboardVisible())
+                // The IME insets give the geometry when they carry the keyboard height
+                if (!m_inputDelegate.isKeyboardVisible() || m_inputDelegate.hasImeInsetsHeight())
                     return true;
 
                 Rect r = new Rect();
@@ -106,10 +106,14 @@ public class QtActivityLoader extends QtLoader {
         setEnvironmentVariable("QT_ANDROID_THEME_DISPLAY_DPI", String.valueOf(displayDensity));
 
         String extractOption = getMetaData("android.app.extract_android_style");
-        if (extractOption.equals("full"))
+        if (extractOption.equals("full") || extractOption.equals("on_demand"))
             setEnvironmentVariable("QT_USE_ANDROID_NATIVE_STYLE", String.valueOf(1));
+        if (extractOption.equals("on_demand"))
+            setEnvironmentVariable("QT_ANDROID_STYLE_ON_DEMAND", String.valueOf(1));
 
-        String stylePath = ExtractStyle.setup(m_activity, extractOption, displayDensity);
+        String imageFormat = getMetaData("android.app.extract_android_style_image_format");
+        String stylePath = ExtractStyle.setup(m_activity, extractOption, imageFormat,
+                                              displayDensity);
         setEnvironmentVariable("ANDROID_STYLE_PATH", stylePath);
     }
 
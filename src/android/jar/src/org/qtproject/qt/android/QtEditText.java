@@ -18,6 +18,8 @@ public class QtEditText extends View
     int m_imeOptions = 0;
     int m_inputType = InputType.TYPE_CLASS_TEXT;
     boolean m_optionsChanged = false;
+    // Token of the input method request monitoring the extracted text
+    int m_extractedTextToken = 0;
 
     private QtInputConnectionListener m_qtInputConnectionListener;
 
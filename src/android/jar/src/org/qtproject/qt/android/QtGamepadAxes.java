@@ -0,0 +1,141 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR LGPL-3.0-only OR GPL-2.0-only OR GPL-3.0-only
+
+package org.qtproject.qt.android;
+
+import android.util.SparseArray;
+import android.view.Choreographer;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Axis values of game controllers, used once native code registered a gamepad axis listener.
+// The axes which changed in the joystick and gamepad move events, historical samples included,
+// are gathered until the next frame and then reach native code with a single call, instead of
+// one call per event. Each event also takes its own call to the generic motion event listeners,
+// but only while native code has registered any. Must be kept in sync with androidjniinput.cpp.
+class QtGamepadAxes
+{
+    private static final int AXIS_COUNT = 64;
+
+    private static volatile boolean m_enabled = false;
+    private static volatile boolean m_genericMotionListeners = false;
+
+    // Device id and axis of each changed value, two ints per value
+    private static int[] m_axes = new int[64];
+    private static float[] m_values = new float[32];
+    private static long[] m_timestamps = new long[32];
+    private static int m_count = 0;
+
+    // The last value of each axis, per device id
+    private static final SparseArray<float[]> m_lastValues = new SparseArray<>();
+
+    private static final Choreographer.FrameCallback m_frameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    flush();
+                }
+            };
+
+    private QtGamepadAxes() {}
+
+    // Called from native code when the first listener is registered and the last one removed
+    static void setEnabled(boolean enabled)
+    {
+        m_enabled = enabled;
+    }
+
+    // Called from native code when the first generic motion event listener is registered and
+    // the last one removed
+    static void setGenericMotionListeners(boolean registered)
+    {
+        m_genericMotionListeners = registered;
+    }
+
+    static boolean hasGenericMotionListeners()
+    {
+        return m_genericMotionListeners;
+    }
+
+    static boolean isGamepadEvent(int source)
+    {
+        return (source & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK
+                || (source & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD;
+    }
+
+    // Gathers the changed axes of a joystick or gamepad move, other events are ignored.
+    // Returns whether the event was gathered.
+    static boolean addMotionEvent(MotionEvent event)
+    {
+        if (!m_enabled || event.getActionMasked() != MotionEvent.ACTION_MOVE
+                || !isGamepadEvent(event.getSource())) {
+            return false;
+        }
+
+        final InputDevice device = event.getDevice();
+        if (device == null)
+            return false;
+
+        final int deviceId = event.getDeviceId();
+        float[] lastValues = m_lastValues.get(deviceId);
+        if (lastValues == null) {
+            lastValues = new float[AXIS_COUNT];
+            Arrays.fill(lastValues, Float.NaN);
+            m_lastValues.put(deviceId, lastValues);
+        }
+
+        final int countBefore = m_count;
+        final List<InputDevice.MotionRange> ranges = device.getMotionRanges();
+        final int historySize = event.getHistorySize();
+        for (int h = 0; h <= historySize; ++h) {
+            final boolean current = h == historySize;
+            final long timestamp = current ? event.getEventTime()
+                                           : event.getHistoricalEventTime(h);
+            for (int i = 0; i < ranges.size(); ++i) {
+                final InputDevice.MotionRange range = ranges.get(i);
+                final int axis = range.getAxis();
+                if (axis >= AXIS_COUNT || (range.getSource() & event.getSource()) == 0)
+                    continue;
+                final float value = current ? event.getAxisValue(axis)
+                                            : event.getHistoricalAxisValue(axis, h);
+                if (value == lastValues[axis])
+                    continue;
+                lastValues[axis] = value;
+                append(deviceId, axis, value, timestamp);
+            }
+        }
+
+        if (countBefore == 0 && m_count > 0)
+            Choreographer.getInstance().postFrameCallback(m_frameCallback);
+        return true;
+    }
+
+    private static void append(int deviceId, int axis, float value, long timestamp)
+    {
+        if (m_count == m_values.length) {
+            m_axes = Arrays.copyOf(m_axes, m_axes.length * 2);
+            m_values = Arrays.copyOf(m_values, m_values.length * 2);
+            m_timestamps = Arrays.copyOf(m_timestamps, m_timestamps.length * 2);
+        }
+        m_axes[m_count * 2] = deviceId;
+        m_axes[m_count * 2 + 1] = axis;
+        m_values[m_count] = value;
+        m_timestamps[m_count] = timestamp;
+        ++m_count;
+    }
+
+    // Sends the pending values, also before a controller key event to keep the order
+    static void flush()
+    {
+        if (m_count == 0)
+            return;
+
+        Choreographer.getInstance().removeFrameCallback(m_frameCallback);
+        final int count = m_count;
+        m_count = 0;
+        QtInputDelegate.gamepadAxes(count, m_axes, m_values, m_timestamps);
+    }
+}
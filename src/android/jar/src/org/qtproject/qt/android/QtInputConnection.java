@@ -11,12 +11,16 @@ import android.view.inputmethod.BaseInputConnection;
 import android.view.inputmethod.CompletionInfo;
 import android.view.inputmethod.ExtractedText;
 import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
 import android.view.inputmethod.InputMethodManager;
 import android.view.KeyEvent;
 import android.graphics.Rect;
 import android.app.Activity;
 import android.util.DisplayMetrics;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 class QtExtractedText
 {
     public int partialEndOffset;
@@ -49,6 +53,50 @@ class QtNativeInputConnection
     static native boolean copyURL();
     static native boolean paste();
     static native boolean updateCursorPosition();
+    static native void syncTextMirror();
+    static native boolean applyBatchEdit(boolean begin, boolean end, int[] edits, String[] texts);
+}
+
+// Edits made by the input method during a batch edit, sent to native code in one call
+class QtBatchEdit
+{
+    // Keep in sync with qandroidinputcontext.cpp
+    static final int COMMIT_TEXT = 0;
+    static final int DELETE_SURROUNDING_TEXT = 1;
+    static final int FINISH_COMPOSING_TEXT = 2;
+    static final int SET_COMPOSING_TEXT = 3;
+    static final int SET_COMPOSING_REGION = 4;
+    static final int SET_SELECTION = 5;
+
+    private static final int STRIDE = 3; // type, two arguments
+
+    private int[] m_edits = new int[8 * STRIDE];
+    private final ArrayList<String> m_texts = new ArrayList<>();
+
+    void add(int type, int first, int second, String text)
+    {
+        final int index = m_texts.size() * STRIDE;
+        if (index + STRIDE > m_edits.length)
+            m_edits = Arrays.copyOf(m_edits, m_edits.length * 2);
+        m_edits[index] = type;
+        m_edits[index + 1] = first;
+        m_edits[index + 2] = second;
+        m_texts.add(text);
+    }
+
+    boolean isEmpty()
+    {
+        return m_texts.isEmpty();
+    }
+
+    // Sends the edits to native code and clears them
+    boolean apply(boolean begin, boolean end)
+    {
+        int[] edits = Arrays.copyOf(m_edits, m_texts.size() * STRIDE);
+        String[] texts = m_texts.toArray(new String[0]);
+        m_texts.clear();
+        return QtNativeInputConnection.applyBatchEdit(begin, end, edits, texts);
+    }
 }
 
 public class QtInputConnection extends BaseInputConnection
@@ -63,6 +111,12 @@ public class QtInputConnection extends BaseInputConnection
 
     private final QtInputConnectionListener m_qtInputConnectionListener;
 
+    // Edits are held back during the batch edits of the input method, until
+    // the batch ends or a query needs them
+    private final QtBatchEdit m_batchEdit = new QtBatchEdit();
+    private int m_batchEditNestingLevel = 0;
+    private boolean m_nativeBatchEdit = false;
+
     class HideKeyboardRunnable implements Runnable {
         @Override
         public void run() {
@@ -109,24 +163,67 @@ public class QtInputConnection extends BaseInputConnection
         m_qtInputConnectionListener = listener;
     }
 
+    private boolean addBatchEdit(int type, int first, int second, String text)
+    {
+        if (m_batchEditNestingLevel == 0)
+            return false;
+        QtInputTextMirror.invalidate();
+        m_batchEdit.add(type, first, second, text);
+        return true;
+    }
+
+    // Sends the held back edits, and ends the native batch edit together with the
+    // one of the input method. Native code is only told about a batch edit when
+    // edits have to be sent before it ends.
+    private boolean flushBatchEdit(boolean end)
+    {
+        if (m_batchEdit.isEmpty() && !(end && m_nativeBatchEdit))
+            return true;
+
+        final boolean begin = !m_nativeBatchEdit;
+        if (end) {
+            if (m_nativeBatchEdit)
+                QtInputTextMirror.endBatchEdit();
+            m_nativeBatchEdit = false;
+        } else if (begin) {
+            QtInputTextMirror.beginBatchEdit();
+            m_nativeBatchEdit = true;
+        }
+        return m_batchEdit.apply(begin, end);
+    }
+
     @Override
     public boolean beginBatchEdit()
     {
         setClosing(false);
-        return QtNativeInputConnection.beginBatchEdit();
+        ++m_batchEditNestingLevel;
+        return true;
     }
 
     @Override
     public boolean endBatchEdit()
     {
         setClosing(false);
-        return QtNativeInputConnection.endBatchEdit();
+        if (m_batchEditNestingLevel > 0 && --m_batchEditNestingLevel == 0)
+            flushBatchEdit(true);
+        return true;
+    }
+
+    @Override
+    public void closeConnection()
+    {
+        if (m_batchEditNestingLevel > 0) {
+            m_batchEditNestingLevel = 0;
+            flushBatchEdit(true);
+        }
+        super.closeConnection();
     }
 
     @Override
     public boolean commitCompletion(CompletionInfo text)
     {
         setClosing(false);
+        QtInputTextMirror.invalidate();
         return QtNativeInputConnection.commitCompletion(text.getText().toString(), text.getPosition());
     }
 
@@ -134,6 +231,9 @@ public class QtInputConnection extends BaseInputConnection
     public boolean commitText(CharSequence text, int newCursorPosition)
     {
         setClosing(false);
+        if (addBatchEdit(QtBatchEdit.COMMIT_TEXT, newCursorPosition, 0, text.toString()))
+            return true;
+        QtInputTextMirror.invalidate();
         return QtNativeInputConnection.commitText(text.toString(), newCursorPosition);
     }
 
@@ -141,6 +241,9 @@ public class QtInputConnection extends BaseInputConnection
     public boolean deleteSurroundingText(int leftLength, int rightLength)
     {
         setClosing(false);
+        if (addBatchEdit(QtBatchEdit.DELETE_SURROUNDING_TEXT, leftLength, rightLength, null))
+            return true;
+        QtInputTextMirror.invalidate();
         return QtNativeInputConnection.deleteSurroundingText(leftLength, rightLength);
     }
 
@@ -149,21 +252,39 @@ public class QtInputConnection extends BaseInputConnection
     {
         // on some/all android devices hide event is not coming, but instead finishComposingText() is called twice
         setClosing(true);
+        if (addBatchEdit(QtBatchEdit.FINISH_COMPOSING_TEXT, 0, 0, null))
+            return true;
+        QtInputTextMirror.invalidate();
         return QtNativeInputConnection.finishComposingText();
     }
 
     @Override
     public int getCursorCapsMode(int reqModes)
     {
+        flushBatchEdit(false);
+        int capsMode = QtInputTextMirror.getCursorCapsMode();
+        if (capsMode != -1)
+            return capsMode;
         return QtNativeInputConnection.getCursorCapsMode(reqModes);
     }
 
     @Override
     public ExtractedText getExtractedText(ExtractedTextRequest request, int flags)
     {
-        QtExtractedText qExtractedText = QtNativeInputConnection.getExtractedText(request.hintMaxChars,
-                                                                                  request.hintMaxLines,
-                                                                                  flags);
+        flushBatchEdit(false);
+        QtExtractedText qExtractedText = null;
+        if ((flags & InputConnection.GET_EXTRACTED_TEXT_MONITOR) != 0) {
+            // Native code remembers the request, and sends the changes with its token
+            m_view.m_extractedTextToken = request.token;
+        } else {
+            qExtractedText = QtInputTextMirror.getExtractedText(request.hintMaxChars,
+                                                                request.hintMaxLines);
+        }
+        if (qExtractedText == null) {
+            qExtractedText = QtNativeInputConnection.getExtractedText(request.hintMaxChars,
+                                                                      request.hintMaxLines,
+                                                                      flags);
+        }
         if (qExtractedText == null)
             return null;
 
@@ -179,34 +300,50 @@ public class QtInputConnection extends BaseInputConnection
 
     public CharSequence getSelectedText(int flags)
     {
+        flushBatchEdit(false);
+        String text = QtInputTextMirror.getSelectedText();
+        if (text != null)
+            return text.isEmpty() ? null : text;
         return QtNativeInputConnection.getSelectedText(flags);
     }
 
     @Override
     public CharSequence getTextAfterCursor(int length, int flags)
     {
+        flushBatchEdit(false);
+        String text = QtInputTextMirror.getTextAfterCursor(length);
+        if (text != null)
+            return text;
         return QtNativeInputConnection.getTextAfterCursor(length, flags);
     }
 
     @Override
     public CharSequence getTextBeforeCursor(int length, int flags)
     {
+        flushBatchEdit(false);
+        String text = QtInputTextMirror.getTextBeforeCursor(length);
+        if (text != null)
+            return text;
         return QtNativeInputConnection.getTextBeforeCursor(length, flags);
     }
 
     @Override
     public boolean performContextMenuAction(int id)
     {
+        flushBatchEdit(false);
         switch (id) {
         case ID_SELECT_ALL:
+            QtInputTextMirror.invalidate();
             return QtNativeInputConnection.selectAll();
         case ID_COPY:
             return QtNativeInputConnection.copy();
         case ID_COPY_URL:
             return QtNativeInputConnection.copyURL();
         case ID_CUT:
+            QtInputTextMirror.invalidate();
             return QtNativeInputConnection.cut();
         case ID_PASTE:
+            QtInputTextMirror.invalidate();
             return QtNativeInputConnection.paste();
 
         case ID_SWITCH_INPUT_METHOD:
@@ -237,6 +374,7 @@ public class QtInputConnection extends BaseInputConnection
         // If the sendKeyEvent was invoked, it means that the button not related with composingText was used
         // In such case composing text (if it exists) should be finished immediately
         finishComposingText();
+        flushBatchEdit(false);
         if (event.getKeyCode() == KeyEvent.KEYCODE_ENTER && m_view != null) {
             KeyEvent fakeEvent;
             switch (m_view.m_imeOptions) {
@@ -274,6 +412,9 @@ public class QtInputConnection extends BaseInputConnection
     public boolean setComposingText(CharSequence text, int newCursorPosition)
     {
         setClosing(false);
+        if (addBatchEdit(QtBatchEdit.SET_COMPOSING_TEXT, newCursorPosition, 0, text.toString()))
+            return true;
+        QtInputTextMirror.invalidate();
         return QtNativeInputConnection.setComposingText(text.toString(), newCursorPosition);
     }
 
@@ -281,6 +422,9 @@ public class QtInputConnection extends BaseInputConnection
     public boolean setComposingRegion(int start, int end)
     {
         setClosing(false);
+        if (addBatchEdit(QtBatchEdit.SET_COMPOSING_REGION, start, end, null))
+            return true;
+        QtInputTextMirror.invalidate();
         return QtNativeInputConnection.setComposingRegion(start, end);
     }
 
@@ -288,6 +432,9 @@ public class QtInputConnection extends BaseInputConnection
     public boolean setSelection(int start, int end)
     {
         setClosing(false);
+        if (addBatchEdit(QtBatchEdit.SET_SELECTION, start, end, null))
+            return true;
+        QtInputTextMirror.invalidate();
         return QtNativeInputConnection.setSelection(start, end);
     }
 }
@@ -3,28 +3,45 @@
 
 package org.qtproject.qt.android;
 
+import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.PointF;
 import android.graphics.Rect;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.ResultReceiver;
 import android.text.method.MetaKeyKeyListener;
 import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.view.Choreographer;
 import android.view.InputDevice;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.View;
+import android.view.WindowInsets;
+import android.view.WindowInsetsAnimation;
 import android.view.WindowManager;
+import android.view.inputmethod.ExtractedText;
 import android.view.inputmethod.InputMethodManager;
 
 import org.qtproject.qt.android.QtInputConnection.QtInputConnectionListener;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 public class QtInputDelegate {
 
     // keyboard methods
     public static native void keyDown(int key, int unicode, int modifier, boolean autoRepeat);
     public static native void keyUp(int key, int unicode, int modifier, boolean autoRepeat);
+    // Like keyDown() and keyUp(), with the QtInputEventRing type and the event time
+    static native void keyEvent(int type, int key, int unicode, int modifier, boolean autoRepeat,
+                                long eventTime);
     public static native void keyboardVisibilityChanged(boolean visibility);
     public static native void keyboardGeometryChanged(int x, int y, int width, int height);
     // keyboard methods
@@ -32,12 +49,18 @@ public class QtInputDelegate {
     // dispatch events methods
     public static native boolean dispatchGenericMotionEvent(MotionEvent event);
     public static native boolean dispatchKeyEvent(KeyEvent event);
+    static native void gamepadAxes(int count, int[] axes, float[] values, long[] timestamps);
     // dispatch events methods
 
     // handle methods
     public static native void handleLocationChanged(int id, int x, int y);
     // handle methods
 
+    // input event ring methods
+    static native void setInputEventRing(ByteBuffer ring, int recordCount);
+    static native void wakeInputEventRing();
+    // input event ring methods
+
     private QtEditText m_editText = null;
     private InputMethodManager m_imm = null;
 
@@ -47,6 +70,12 @@ public class QtInputDelegate {
     private int m_portraitKeyboardHeight = 0;
     private int m_landscapeKeyboardHeight = 0;
     private int m_probeKeyboardHeightDelayMs = 50;
+    private int m_editTextHeight = 0;
+    // The IME height of the last insets, and whether the insets ever carried one. With
+    // adjustResize in a window which is not edge-to-edge the IME insets can stay 0, then the
+    // keyboard is still tracked through the visible display frame
+    private int m_imeInsetsHeight = 0;
+    private boolean m_imeInsetsHadHeight = false;
     private CursorHandle m_cursorHandle;
     private CursorHandle m_leftSelectionHandle;
     private CursorHandle m_rightSelectionHandle;
@@ -92,7 +121,44 @@ public class QtInputDelegate {
 
     private static Boolean m_tabletEventSupported = null;
 
-    private static int m_oldX, m_oldY;
+    // Set from the android.app.low_latency_input manifest meta-data
+    private static Boolean m_lowLatencyInputEnabled = null;
+
+    // The last position sent for each pointing device, moves of non-mouse tools closer
+    // than QT_ANDROID_MOUSE_MOVE_THRESHOLD pixels (5 by default) to it are not sent
+    private static final SparseArray<PointF> m_lastMousePositions = new SparseArray<>();
+    private static float m_mouseMoveThreshold = -1;
+
+    // The pointers of a touch event, packed as id, action, x, y, major, minor, rotation
+    // and pressure, so they reach native with a single call. Must be kept in sync with
+    // androidjniinput.cpp.
+    static final int TOUCH_POINT_STRIDE = 8;
+    private static float[] m_touchPoints = new float[10 * TOUCH_POINT_STRIDE];
+    // The x and y velocity of the same pointers, only sent while QtTouchVelocity is enabled
+    private static float[] m_touchVelocities = new float[10 * 2];
+
+    // With QT_ANDROID_TOUCH_HISTORY set, the historical samples of coalesced move events
+    // are delivered too, each with its own event time
+    private static Boolean m_touchHistoryEnabled = null;
+    private static long[] m_touchTimestamps = new long[16];
+
+    // With QT_ANDROID_VSYNC_TOUCH_MOVES set, touch moves are sent once per frame,
+    // presses, releases and cancels are still sent right away
+    private static Boolean m_vsyncTouchMovesEnabled = null;
+    private static MotionEvent m_pendingTouchMove = null;
+    private static int m_pendingTouchMoveWinId = 0;
+    private static final SparseBooleanArray m_movedPointerIds = new SparseBooleanArray();
+    private static int m_touchMovesReceived = 0;
+    private static int m_touchMovesSent = 0;
+    private static final Choreographer.FrameCallback m_touchMoveFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    flushTouchMove();
+                }
+            };
+
+    private static final String QtTAG = "QtInputDelegate";
 
 
     private long m_metaState;
@@ -144,6 +210,12 @@ public class QtInputDelegate {
         return isKeyboardVisible() && !m_isKeyboardHidingAnimationOngoing;
     }
 
+    // Whether the last IME insets gave the keyboard geometry
+    boolean hasImeInsetsHeight()
+    {
+        return m_imeInsetsHeight > 0;
+    }
+
     void setSoftInputMode(int inputMode)
     {
         m_softInputMode = inputMode;
@@ -210,6 +282,8 @@ public class QtInputDelegate {
 
                 setEditTextOptions(enterKeyType, inputHints);
 
+                m_editTextHeight = height;
+
                 // TODO: The editText is added to the QtLayout, but is it ever removed?
                 QtLayout.LayoutParams layoutParams = new QtLayout.LayoutParams(width, height, x, y);
                 layout.setLayoutParams(m_editText, layoutParams, false);
@@ -227,7 +301,7 @@ public class QtInputDelegate {
                                         //FALLTHROUGH
                                     case InputMethodManager.RESULT_UNCHANGED_SHOWN:
                                         setKeyboardVisibility(true, System.nanoTime());
-                                        if (m_softInputMode == 0) {
+                                        if (m_softInputMode == 0 && !m_imeInsetsHadHeight) {
                                             probeForKeyboardHeight(layout, activity,
                                                     x, y, width, height, inputHints, enterKeyType);
                                         }
@@ -387,6 +461,84 @@ public class QtInputDelegate {
         return imeOptions;
     }
 
+    // From Android 11 the keyboard geometry and visibility are tracked through the IME
+    // insets, older versions, and windows whose insets carry no IME height, use the visible
+    // display frame instead
+    static boolean useImeInsets()
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+    }
+
+    @SuppressLint("NewApi")
+    void trackImeInsets(final Activity activity, final View view)
+    {
+        // Follows the keyboard while it slides in and out
+        view.setWindowInsetsAnimationCallback(new WindowInsetsAnimation.Callback(
+                WindowInsetsAnimation.Callback.DISPATCH_MODE_CONTINUE_ON_SUBTREE) {
+            @Override
+            public WindowInsets onProgress(WindowInsets insets,
+                                           List<WindowInsetsAnimation> runningAnimations) {
+                imeInsetsChanged(activity, view, insets, false);
+                return insets;
+            }
+
+            @Override
+            public void onEnd(WindowInsetsAnimation animation) {
+                WindowInsets insets = view.getRootWindowInsets();
+                if (insets != null)
+                    imeInsetsChanged(activity, view, insets, true);
+            }
+        });
+
+        view.setOnApplyWindowInsetsListener(new View.OnApplyWindowInsetsListener() {
+            @Override
+            public WindowInsets onApplyWindowInsets(View v, WindowInsets insets) {
+                imeInsetsChanged(activity, v, insets, true);
+                return v.onApplyWindowInsets(insets);
+            }
+        });
+    }
+
+    @SuppressLint("NewApi")
+    private void imeInsetsChanged(Activity activity, View view, WindowInsets insets,
+                                  boolean updateVisibility)
+    {
+        final boolean visible = insets.isVisible(WindowInsets.Type.ime());
+        if (updateVisibility)
+            setKeyboardVisibility(visible, System.nanoTime());
+
+        final int keyboardHeight = insets.getInsets(WindowInsets.Type.ime()).bottom;
+        m_imeInsetsHeight = keyboardHeight;
+        // Without an IME height the pre-draw listener follows the visible display frame
+        if (!m_keyboardIsVisible || keyboardHeight <= 0)
+            return;
+        m_imeInsetsHadHeight = true;
+
+        final View rootView = view.getRootView();
+        final int[] rootLocation = new int[2];
+        rootView.getLocationOnScreen(rootLocation);
+        final int[] location = new int[2];
+        view.getLocationOnScreen(location);
+        final int keyboardTop = rootLocation[1] + rootView.getHeight() - keyboardHeight;
+        QtInputDelegate.keyboardGeometryChanged(location[0], keyboardTop - location[1],
+                                                rootView.getWidth(), keyboardHeight);
+
+        // Remember the keyboard height for choosing between panning and resizing,
+        // like probeForKeyboardHeight() does
+        if (!updateVisibility || m_softInputMode != 0)
+            return;
+        final boolean landscape = rootView.getWidth() > rootView.getHeight();
+        final int knownKeyboardTop = landscape ? m_landscapeKeyboardHeight
+                                               : m_portraitKeyboardHeight;
+        if (knownKeyboardTop != keyboardTop) {
+            if (landscape)
+                m_landscapeKeyboardHeight = keyboardTop;
+            else
+                m_portraitKeyboardHeight = keyboardTop;
+            updateSoftInputMode(activity, m_editTextHeight);
+        }
+    }
+
     private void probeForKeyboardHeight(QtLayout layout, Activity activity, int x, int y,
                                         int width, int height, int inputHints, int enterKeyType)
     {
@@ -466,6 +618,33 @@ public class QtInputDelegate {
         });
     }
 
+    /* called from the C++ code with the part of the extracted text that changed, when the input
+       method asked to monitor it. partialStartOffset and partialEndOffset are -1 when the whole
+       text is sent.
+    */
+    public void updateExtractedText(final int startOffset, final int partialStartOffset,
+                                    final int partialEndOffset, final String text,
+                                    final int selectionStart, final int selectionEnd)
+    {
+        QtNative.runAction(new Runnable() {
+            @Override
+            public void run() {
+                if (m_imm == null || m_editText == null)
+                    return;
+
+                ExtractedText extractedText = new ExtractedText();
+                extractedText.startOffset = startOffset;
+                extractedText.partialStartOffset = partialStartOffset;
+                extractedText.partialEndOffset = partialEndOffset;
+                extractedText.text = text;
+                extractedText.selectionStart = selectionStart;
+                extractedText.selectionEnd = selectionEnd;
+                m_imm.updateExtractedText(m_editText, m_editText.m_extractedTextToken,
+                                          extractedText);
+            }
+        });
+    }
+
     public int getSelectHandleWidth()
     {
         int width = 0;
@@ -589,11 +768,32 @@ public class QtInputDelegate {
                 return true;
         }
 
-        QtInputDelegate.keyDown(keyCode, c, event.getMetaState(), event.getRepeatCount() > 0);
+        postKeyDown(keyCode, c, event.getMetaState(), event.getRepeatCount() > 0,
+                    event.getEventTime());
 
         return true;
     }
 
+    // The post methods send the events through the QtInputEventRing when it is enabled.
+    // The event time goes along for the input latency statistics of the native side.
+    static private void postKeyDown(int key, int unicode, int modifier, boolean autoRepeat,
+                                    long eventTime)
+    {
+        if (!QtInputEventRing.postKey(QtInputEventRing.KEY_DOWN, key, unicode, modifier,
+                                      autoRepeat, eventTime)) {
+            keyEvent(QtInputEventRing.KEY_DOWN, key, unicode, modifier, autoRepeat, eventTime);
+        }
+    }
+
+    static private void postKeyUp(int key, int unicode, int modifier, boolean autoRepeat,
+                                  long eventTime)
+    {
+        if (!QtInputEventRing.postKey(QtInputEventRing.KEY_UP, key, unicode, modifier,
+                                      autoRepeat, eventTime)) {
+            keyEvent(QtInputEventRing.KEY_UP, key, unicode, modifier, autoRepeat, eventTime);
+        }
+    }
+
     public boolean onKeyUp(int keyCode, KeyEvent event)
     {
         if ((keyCode == KeyEvent.KEYCODE_VOLUME_UP
@@ -611,7 +811,8 @@ public class QtInputDelegate {
 
         m_metaState = MetaKeyKeyListener.handleKeyUp(m_metaState, keyCode, event);
         boolean autoRepeat = event.getRepeatCount() > 0;
-        QtInputDelegate.keyUp(keyCode, event.getUnicodeChar(), event.getMetaState(), autoRepeat);
+        postKeyUp(keyCode, event.getUnicodeChar(), event.getMetaState(), autoRepeat,
+                  event.getEventTime());
 
         return true;
     }
@@ -622,17 +823,23 @@ public class QtInputDelegate {
                 && event.getCharacters() != null
                 && event.getCharacters().length() == 1
                 && event.getKeyCode() == 0) {
-            keyDown(0, event.getCharacters().charAt(0), event.getMetaState(),
-                    event.getRepeatCount() > 0);
-            keyUp(0, event.getCharacters().charAt(0), event.getMetaState(),
-                    event.getRepeatCount() > 0);
+            postKeyDown(0, event.getCharacters().charAt(0), event.getMetaState(),
+                        event.getRepeatCount() > 0, event.getEventTime());
+            postKeyUp(0, event.getCharacters().charAt(0), event.getMetaState(),
+                      event.getRepeatCount() > 0, event.getEventTime());
         }
 
+        if (QtGamepadAxes.isGamepadEvent(event.getSource()))
+            QtGamepadAxes.flush();
         return dispatchKeyEvent(event);
     }
 
     public boolean handleDispatchGenericMotionEvent(MotionEvent event)
     {
+        // Without a generic motion event listener nobody would handle the event, so a
+        // gathered controller move does not take a JNI call of its own
+        if (QtGamepadAxes.addMotionEvent(event) && !QtGamepadAxes.hasGenericMotionListeners())
+            return false;
         return dispatchGenericMotionEvent(event);
     }
 
@@ -645,19 +852,49 @@ public class QtInputDelegate {
     public static native void tabletEvent(int winId, int deviceId, long time, int action,
                                           int pointerType, int buttonState, float x, float y,
                                           float pressure);
+    public static native void tabletEvents(int winId, int deviceId, int buttonState,
+                                           int pointerCount, int sampleCount, long[] timestamps,
+                                           float[] pointers);
     // tablet methods
 
     // pointer methods
-    public static native void mouseDown(int winId, int x, int y);
-    public static native void mouseUp(int winId, int x, int y);
-    public static native void mouseMove(int winId, int x, int y);
-    public static native void mouseWheel(int winId, int x, int y, float hDelta, float vDelta);
+    public static native void mouseDown(int winId, float x, float y);
+    public static native void mouseUp(int winId, float x, float y);
+    public static native void mouseMove(int winId, float x, float y);
+    public static native void mouseWheel(int winId, float x, float y, float hDelta, float vDelta);
+    // Like the above, with the QtInputEventRing type and the event time
+    static native void mouseEvent(int type, int winId, float x, float y, float hDelta,
+                                  float vDelta, long eventTime);
+    // The public API took integer positions before sub-pixel mouse positions, keep
+    // those overloads for existing callers
+    public static void mouseDown(int winId, int x, int y)
+    {
+        mouseDown(winId, (float) x, (float) y);
+    }
+    public static void mouseUp(int winId, int x, int y)
+    {
+        mouseUp(winId, (float) x, (float) y);
+    }
+    public static void mouseMove(int winId, int x, int y)
+    {
+        mouseMove(winId, (float) x, (float) y);
+    }
+    public static void mouseWheel(int winId, int x, int y, float hDelta, float vDelta)
+    {
+        mouseWheel(winId, (float) x, (float) y, hDelta, vDelta);
+    }
     public static native void touchBegin(int winId);
     public static native void touchAdd(int winId, int pointerId, int action, boolean primary,
                                        int x, int y, float major, float minor, float rotation,
                                        float pressure);
     public static native void touchEnd(int winId, int action);
     public static native void touchCancel(int winId);
+    // velocities is null unless QtTouchVelocity is enabled
+    public static native void touchEvent(int winId, int action, int pointerCount,
+                                         float[] pointers, float[] velocities, long eventTime);
+    public static native void touchHistoryEvent(int winId, int action, int pointerCount,
+                                                int sampleCount, long[] timestamps,
+                                                float[] pointers, float[] velocities);
     public static native void longPress(int winId, int x, int y);
     // pointer methods
 
@@ -688,10 +925,90 @@ public class QtInputDelegate {
         return 2;
     }
 
+    // The action of a pointer for sample h of a move event, where h == getHistorySize()
+    // is the current sample
+    static private int getHistoricalAction(int index, int h, MotionEvent event)
+    {
+        if (h == 0)
+            return 1;
+
+        final int hsz = event.getHistorySize();
+        float x = h < hsz ? event.getHistoricalX(index, h) : event.getX(index);
+        float y = h < hsz ? event.getHistoricalY(index, h) : event.getY(index);
+        if (event.getHistoricalX(index, h - 1) != x || event.getHistoricalY(index, h - 1) != y)
+            return 1;
+        return 2;
+    }
+
+    static private void sendTouchHistoryEvent(MotionEvent event, int id, int action)
+    {
+        final int pointerCount = event.getPointerCount();
+        final int historySize =
+                event.getActionMasked() == MotionEvent.ACTION_MOVE ? event.getHistorySize() : 0;
+        final int sampleCount = historySize + 1;
+
+        final boolean velocity = QtTouchVelocity.isEnabled();
+        if (m_touchPoints.length < sampleCount * pointerCount * TOUCH_POINT_STRIDE)
+            m_touchPoints = new float[sampleCount * pointerCount * TOUCH_POINT_STRIDE];
+        if (velocity && m_touchVelocities.length < sampleCount * pointerCount * 2)
+            m_touchVelocities = new float[sampleCount * pointerCount * 2];
+        if (m_touchTimestamps.length < sampleCount)
+            m_touchTimestamps = new long[sampleCount];
+
+        for (int h = 0, j = 0, k = 0; h < sampleCount; ++h) {
+            final boolean current = h == historySize;
+            m_touchTimestamps[h] = current ? event.getEventTime() : event.getHistoricalEventTime(h);
+            for (int i = 0; i < pointerCount; ++i) {
+                m_touchPoints[j++] = event.getPointerId(i);
+                m_touchPoints[j++] = historySize > 0 ? getHistoricalAction(i, h, event)
+                                                     : getAction(i, event);
+                if (current) {
+                    m_touchPoints[j++] = event.getX(i);
+                    m_touchPoints[j++] = event.getY(i);
+                    m_touchPoints[j++] = event.getTouchMajor(i);
+                    m_touchPoints[j++] = event.getTouchMinor(i);
+                    m_touchPoints[j++] = event.getOrientation(i);
+                    m_touchPoints[j++] = event.getPressure(i);
+                } else {
+                    m_touchPoints[j++] = event.getHistoricalX(i, h);
+                    m_touchPoints[j++] = event.getHistoricalY(i, h);
+                    m_touchPoints[j++] = event.getHistoricalTouchMajor(i, h);
+                    m_touchPoints[j++] = event.getHistoricalTouchMinor(i, h);
+                    m_touchPoints[j++] = event.getHistoricalOrientation(i, h);
+                    m_touchPoints[j++] = event.getHistoricalPressure(i, h);
+                }
+                if (velocity) {
+                    // The tracker only knows the velocity at the time of the current
+                    // sample, the historical samples carry no velocity
+                    final int pointerId = event.getPointerId(i);
+                    m_touchVelocities[k++] = current ? QtTouchVelocity.getXVelocity(pointerId) : 0;
+                    m_touchVelocities[k++] = current ? QtTouchVelocity.getYVelocity(pointerId) : 0;
+                }
+            }
+        }
+        touchHistoryEvent(id, action, pointerCount, sampleCount, m_touchTimestamps,
+                          m_touchPoints, velocity ? m_touchVelocities : null);
+    }
+
+    static boolean isLowLatencyInputEnabled()
+    {
+        if (m_lowLatencyInputEnabled == null)
+            m_lowLatencyInputEnabled = System.getenv("QT_ANDROID_LOW_LATENCY_INPUT") != null;
+        return m_lowLatencyInputEnabled;
+    }
+
     static public void sendTouchEvent(MotionEvent event, int id)
     {
         int pointerType = 0;
 
+        if (isLowLatencyInputEnabled()) {
+            final int action = event.getActionMasked();
+            if (action == MotionEvent.ACTION_DOWN)
+                QtNative.getQtThread().setInputActive(true);
+            else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)
+                QtNative.getQtThread().setInputActive(false);
+        }
+
         if (m_tabletEventSupported == null)
             m_tabletEventSupported = isTabletEventSupported();
 
@@ -707,43 +1024,220 @@ public class QtInputDelegate {
         if (event.getToolType(0) == MotionEvent.TOOL_TYPE_MOUSE) {
             sendMouseEvent(event, id);
         } else if (m_tabletEventSupported && pointerType != 0) {
-            tabletEvent(id, event.getDeviceId(), event.getEventTime(), event.getActionMasked(),
-                    pointerType, event.getButtonState(),
-                    event.getX(), event.getY(), event.getPressure());
+            sendTabletEvent(event, id);
         } else {
-            touchBegin(id);
-            for (int i = 0; i < event.getPointerCount(); ++i) {
-                touchAdd(id,
-                        event.getPointerId(i),
-                        getAction(i, event),
-                        i == 0,
-                        (int)event.getX(i),
-                        (int)event.getY(i),
-                        event.getTouchMajor(i),
-                        event.getTouchMinor(i),
-                        event.getOrientation(i),
-                        event.getPressure(i));
-            }
-
+            int action;
             switch (event.getAction()) {
                 case MotionEvent.ACTION_DOWN:
-                    touchEnd(id, 0);
+                    action = 0;
                     break;
 
                 case MotionEvent.ACTION_UP:
-                    touchEnd(id, 2);
+                    action = 2;
                     break;
 
                 case MotionEvent.ACTION_CANCEL:
-                    touchCancel(id);
+                    action = 3;
                     break;
 
                 default:
-                    touchEnd(id, 1);
+                    action = 1;
             }
+
+            if (QtTouchVelocity.isEnabled())
+                QtTouchVelocity.addMovement(event);
+
+            if (m_touchHistoryEnabled == null)
+                m_touchHistoryEnabled = System.getenv("QT_ANDROID_TOUCH_HISTORY") != null;
+            if (m_touchHistoryEnabled) {
+                sendTouchHistoryEvent(event, id, action);
+                return;
+            }
+
+            if (m_vsyncTouchMovesEnabled == null) {
+                m_vsyncTouchMovesEnabled = System.getenv("QT_ANDROID_VSYNC_TOUCH_MOVES") != null
+                                           && !isLowLatencyInputEnabled();
+            }
+            if (m_vsyncTouchMovesEnabled) {
+                if (event.getActionMasked() == MotionEvent.ACTION_MOVE) {
+                    queueTouchMove(event, id);
+                    return;
+                }
+                // Keep the order of the events
+                flushTouchMove();
+                if (action == 2 || action == 3)
+                    logTouchMoveStats();
+            }
+
+            packTouchPoints(event, false);
+            postTouchEvent(id, action, event.getPointerCount(), event.getEventTime());
+        }
+    }
+
+    // Sends the pointers packed by packTouchPoints()
+    static private void postTouchEvent(int winId, int action, int pointerCount, long eventTime)
+    {
+        final float[] velocities = QtTouchVelocity.isEnabled() ? m_touchVelocities : null;
+        if (!QtInputEventRing.postTouch(winId, action, pointerCount, m_touchPoints, velocities,
+                                        eventTime)) {
+            touchEvent(winId, action, pointerCount, m_touchPoints, velocities, eventTime);
         }
     }
 
+    static private void packTouchPoints(MotionEvent event, boolean coalesced)
+    {
+        final int pointerCount = event.getPointerCount();
+        final boolean velocity = QtTouchVelocity.isEnabled();
+        if (m_touchPoints.length < pointerCount * TOUCH_POINT_STRIDE)
+            m_touchPoints = new float[pointerCount * TOUCH_POINT_STRIDE];
+        if (velocity && m_touchVelocities.length < pointerCount * 2)
+            m_touchVelocities = new float[pointerCount * 2];
+
+        for (int i = 0, j = 0; i < pointerCount; ++i) {
+            final int pointerId = event.getPointerId(i);
+            m_touchPoints[j++] = pointerId;
+            // A coalesced move reports the pointers which moved in any of its events
+            m_touchPoints[j++] = coalesced && m_movedPointerIds.get(pointerId)
+                                 ? 1 : getAction(i, event);
+            m_touchPoints[j++] = event.getX(i);
+            m_touchPoints[j++] = event.getY(i);
+            m_touchPoints[j++] = event.getTouchMajor(i);
+            m_touchPoints[j++] = event.getTouchMinor(i);
+            m_touchPoints[j++] = event.getOrientation(i);
+            m_touchPoints[j++] = event.getPressure(i);
+            if (velocity) {
+                m_touchVelocities[i * 2] = QtTouchVelocity.getXVelocity(pointerId);
+                m_touchVelocities[i * 2 + 1] = QtTouchVelocity.getYVelocity(pointerId);
+            }
+        }
+    }
+
+    // Keeps only the last move event until the next frame, moves arriving faster than
+    // the display refresh rate would only wake up the Qt event loop several times per frame
+    static private void queueTouchMove(MotionEvent event, int id)
+    {
+        ++m_touchMovesReceived;
+        if (m_pendingTouchMove != null && (m_pendingTouchMoveWinId != id
+                || m_pendingTouchMove.getPointerCount() != event.getPointerCount())) {
+            flushTouchMove();
+        }
+
+        for (int i = 0; i < event.getPointerCount(); ++i) {
+            if (getAction(i, event) == 1)
+                m_movedPointerIds.put(event.getPointerId(i), true);
+        }
+
+        if (m_pendingTouchMove == null)
+            Choreographer.getInstance().postFrameCallback(m_touchMoveFrameCallback);
+        else
+            m_pendingTouchMove.recycle();
+        // The event is recycled by the caller once it has been dispatched
+        m_pendingTouchMove = MotionEvent.obtain(event);
+        m_pendingTouchMoveWinId = id;
+    }
+
+    static private void flushTouchMove()
+    {
+        if (m_pendingTouchMove == null)
+            return;
+
+        Choreographer.getInstance().removeFrameCallback(m_touchMoveFrameCallback);
+        MotionEvent event = m_pendingTouchMove;
+        m_pendingTouchMove = null;
+
+        packTouchPoints(event, true);
+        m_movedPointerIds.clear();
+        postTouchEvent(m_pendingTouchMoveWinId, 1, event.getPointerCount(),
+                       event.getEventTime());
+        ++m_touchMovesSent;
+        event.recycle();
+    }
+
+    static private void logTouchMoveStats()
+    {
+        // Enabled with "adb shell setprop log.tag.QtInputDelegate VERBOSE"
+        if (m_touchMovesReceived > 0 && Log.isLoggable(QtTAG, Log.VERBOSE)) {
+            Log.v(QtTAG, "Sent " + m_touchMovesSent + " of " + m_touchMovesReceived
+                    + " touch moves, saved " + (m_touchMovesReceived - m_touchMovesSent)
+                    + " native wakeups");
+        }
+        m_touchMovesReceived = 0;
+        m_touchMovesSent = 0;
+    }
+
+    static private int getTabletPointerType(MotionEvent event, int index)
+    {
+        switch (event.getToolType(index)) {
+            case MotionEvent.TOOL_TYPE_STYLUS:
+                return 1; // QTabletEvent::Pen
+            case MotionEvent.TOOL_TYPE_ERASER:
+                return 3; // QTabletEvent::Eraser
+            default:
+                return 0;
+        }
+    }
+
+    // The action of one pointer, as the action of a single pointer event
+    static private int getTabletAction(MotionEvent event, int index)
+    {
+        final int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_POINTER_DOWN || action == MotionEvent.ACTION_POINTER_UP) {
+            if (index != event.getActionIndex())
+                return MotionEvent.ACTION_MOVE;
+            return action == MotionEvent.ACTION_POINTER_DOWN ? MotionEvent.ACTION_DOWN
+                                                             : MotionEvent.ACTION_UP;
+        }
+        return action;
+    }
+
+    // Sends all the axes of every stylus pointer, for all the samples of the event, with a
+    // single call. Must be kept in sync with androidjniinput.cpp.
+    private static final int TABLET_POINT_STRIDE = 9;
+    private static float[] m_tabletPoints = new float[4 * TABLET_POINT_STRIDE];
+
+    static private void sendTabletEvent(MotionEvent event, int id)
+    {
+        final int pointerCount = event.getPointerCount();
+        final int historySize = event.getHistorySize();
+        final int sampleCount = historySize + 1;
+
+        if (m_tabletPoints.length < sampleCount * pointerCount * TABLET_POINT_STRIDE)
+            m_tabletPoints = new float[sampleCount * pointerCount * TABLET_POINT_STRIDE];
+        if (m_touchTimestamps.length < sampleCount)
+            m_touchTimestamps = new long[sampleCount];
+
+        for (int h = 0, j = 0; h < sampleCount; ++h) {
+            final boolean current = h == historySize;
+            m_touchTimestamps[h] = current ? event.getEventTime() : event.getHistoricalEventTime(h);
+            for (int i = 0; i < pointerCount; ++i) {
+                m_tabletPoints[j++] = event.getPointerId(i);
+                m_tabletPoints[j++] = getTabletPointerType(event, i);
+                // Historical samples only exist for moves
+                m_tabletPoints[j++] = current ? getTabletAction(event, i) : MotionEvent.ACTION_MOVE;
+                if (current) {
+                    m_tabletPoints[j++] = event.getX(i);
+                    m_tabletPoints[j++] = event.getY(i);
+                    m_tabletPoints[j++] = event.getPressure(i);
+                    m_tabletPoints[j++] = event.getAxisValue(MotionEvent.AXIS_TILT, i);
+                    m_tabletPoints[j++] = event.getAxisValue(MotionEvent.AXIS_ORIENTATION, i);
+                    m_tabletPoints[j++] = event.getAxisValue(MotionEvent.AXIS_DISTANCE, i);
+                } else {
+                    m_tabletPoints[j++] = event.getHistoricalX(i, h);
+                    m_tabletPoints[j++] = event.getHistoricalY(i, h);
+                    m_tabletPoints[j++] = event.getHistoricalPressure(i, h);
+                    m_tabletPoints[j++] =
+                            event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, i, h);
+                    m_tabletPoints[j++] =
+                            event.getHistoricalAxisValue(MotionEvent.AXIS_ORIENTATION, i, h);
+                    m_tabletPoints[j++] =
+                            event.getHistoricalAxisValue(MotionEvent.AXIS_DISTANCE, i, h);
+                }
+            }
+        }
+        tabletEvents(id, event.getDeviceId(), event.getButtonState(), pointerCount, sampleCount,
+                     m_touchTimestamps, m_tabletPoints);
+    }
+
     static public void sendTrackballEvent(MotionEvent event, int id)
     {
         sendMouseEvent(event,id);
@@ -761,36 +1255,73 @@ public class QtInputDelegate {
         return sendMouseEvent(event, id);
     }
 
+    static private float mouseMoveThreshold()
+    {
+        if (m_mouseMoveThreshold < 0) {
+            m_mouseMoveThreshold = isLowLatencyInputEnabled() ? 0 : 5;
+            String threshold = System.getenv("QT_ANDROID_MOUSE_MOVE_THRESHOLD");
+            if (threshold != null) {
+                try {
+                    m_mouseMoveThreshold = Math.max(0, Float.parseFloat(threshold));
+                } catch (NumberFormatException e) {
+                    Log.w(QtTAG, "Invalid QT_ANDROID_MOUSE_MOVE_THRESHOLD " + threshold);
+                }
+            }
+        }
+        return m_mouseMoveThreshold;
+    }
+
+    static private void setLastMousePosition(MotionEvent event)
+    {
+        PointF position = m_lastMousePositions.get(event.getDeviceId());
+        if (position == null) {
+            position = new PointF();
+            m_lastMousePositions.put(event.getDeviceId(), position);
+        }
+        position.set(event.getX(), event.getY());
+    }
+
+    static private void postMouseEvent(int type, int winId, float x, float y, float hDelta,
+                                       float vDelta, long eventTime)
+    {
+        if (!QtInputEventRing.postMouse(type, winId, x, y, hDelta, vDelta, eventTime))
+            mouseEvent(type, winId, x, y, hDelta, vDelta, eventTime);
+    }
+
     static public boolean sendMouseEvent(MotionEvent event, int id)
     {
         switch (event.getActionMasked()) {
             case MotionEvent.ACTION_UP:
-                mouseUp(id, (int) event.getX(), (int) event.getY());
+                postMouseEvent(QtInputEventRing.MOUSE_UP, id, event.getX(), event.getY(), 0, 0,
+                               event.getEventTime());
                 break;
 
             case MotionEvent.ACTION_DOWN:
-                mouseDown(id, (int) event.getX(), (int) event.getY());
-                m_oldX = (int) event.getX();
-                m_oldY = (int) event.getY();
+                postMouseEvent(QtInputEventRing.MOUSE_DOWN, id, event.getX(), event.getY(), 0, 0,
+                               event.getEventTime());
+                setLastMousePosition(event);
                 break;
             case MotionEvent.ACTION_HOVER_MOVE:
             case MotionEvent.ACTION_MOVE:
                 if (event.getToolType(0) == MotionEvent.TOOL_TYPE_MOUSE) {
-                    mouseMove(id, (int) event.getX(), (int) event.getY());
+                    postMouseEvent(QtInputEventRing.MOUSE_MOVE, id, event.getX(), event.getY(),
+                                   0, 0, event.getEventTime());
                 } else {
-                    int dx = (int) (event.getX() - m_oldX);
-                    int dy = (int) (event.getY() - m_oldY);
-                    if (Math.abs(dx) > 5 || Math.abs(dy) > 5) {
-                        mouseMove(id, (int) event.getX(), (int) event.getY());
-                        m_oldX = (int) event.getX();
-                        m_oldY = (int) event.getY();
+                    PointF last = m_lastMousePositions.get(event.getDeviceId());
+                    final float threshold = mouseMoveThreshold();
+                    if (last == null || Math.abs(event.getX() - last.x) > threshold
+                            || Math.abs(event.getY() - last.y) > threshold) {
+                        postMouseEvent(QtInputEventRing.MOUSE_MOVE, id, event.getX(),
+                                       event.getY(), 0, 0, event.getEventTime());
+                        setLastMousePosition(event);
                     }
                 }
                 break;
             case MotionEvent.ACTION_SCROLL:
-                mouseWheel(id, (int) event.getX(), (int) event.getY(),
-                        event.getAxisValue(MotionEvent.AXIS_HSCROLL),
-                        event.getAxisValue(MotionEvent.AXIS_VSCROLL));
+                postMouseEvent(QtInputEventRing.MOUSE_WHEEL, id, event.getX(), event.getY(),
+                               event.getAxisValue(MotionEvent.AXIS_HSCROLL),
+                               event.getAxisValue(MotionEvent.AXIS_VSCROLL),
+                               event.getEventTime());
                 break;
             default:
                 return false;
@@ -0,0 +1,201 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR LGPL-3.0-only OR GPL-2.0-only OR GPL-3.0-only
+
+package org.qtproject.qt.android;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// Single producer, single consumer ring of input events, shared with native code through a
+// direct ByteBuffer and enabled with the QT_ANDROID_INPUT_EVENT_RING environment variable on
+// Android 13 or greater. The UI thread appends the key, mouse and touch events, and only calls
+// into native code to wake up the Qt thread when it has drained the ring and went idle, so the
+// events arriving while the Qt thread is busy are delivered in a single batch.
+// Only the Qt thread drains the ring. The events which do not go through it, because it is
+// full or because of their kind, take their own JNI call, and native code queues them to the
+// Qt thread behind the events of the ring. The ring is not used again before they are
+// delivered. The exceptions are dispatchKeyEvent() and dispatchGenericMotionEvent(), which
+// return whether a native listener handled the event and so run right away: their listeners
+// can see a key or motion event before Qt got the events still waiting in the ring.
+// The layout must be kept in sync with androidjniinput.cpp.
+class QtInputEventRing
+{
+    static final int KEY_DOWN = 1;
+    static final int KEY_UP = 2;
+    static final int MOUSE_DOWN = 3;
+    static final int MOUSE_UP = 4;
+    static final int MOUSE_MOVE = 5;
+    static final int MOUSE_WHEEL = 6;
+    static final int TOUCH = 7;
+
+    // The indices and the waiting flag are on their own cache lines
+    private static final int WRITE_INDEX_OFFSET = 0;
+    private static final int READ_INDEX_OFFSET = 64;
+    private static final int WAITING_OFFSET = 128;
+    // Count of the events native code queued behind the ring, only written by native code
+    private static final int QUEUED_OFFSET = 132;
+    private static final int HEADER_SIZE = 192;
+
+    // Records are 16 ints or floats: the type and four ints, then up to ten floats from
+    // index 5 on, and the low 32 bits of the event time last. A touch event takes one record
+    // per pointer, with its x and y velocity after the packed pointer.
+    private static final int RECORD_SIZE = 64;
+    private static final int RECORD_COUNT = 256; // must be a power of two
+    private static final int FLOATS_OFFSET = 20;
+    private static final int EVENT_TIME_OFFSET = 60;
+
+    private static final String QtTAG = "QtInputEventRing";
+    private static final int STATISTICS_INTERVAL = 1000;
+
+    private static Boolean m_enabled = null;
+    private static ByteBuffer m_ring = null;
+    private static int m_writeIndex = 0;
+
+    // Enabled with "adb shell setprop log.tag.QtInputEventRing VERBOSE"
+    private static boolean m_logStatistics = false;
+    private static long m_eventCount = 0;
+    private static long m_wakeUpCount = 0;
+    private static long m_fallbackCount = 0;
+    private static long m_postTime = 0;
+
+    private QtInputEventRing() {}
+
+    static boolean isEnabled()
+    {
+        if (m_enabled == null) {
+            m_enabled = Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                        && System.getenv("QT_ANDROID_INPUT_EVENT_RING") != null;
+        }
+        return m_enabled;
+    }
+
+    private static int recordOffset(int index)
+    {
+        return HEADER_SIZE + (index & (RECORD_COUNT - 1)) * RECORD_SIZE;
+    }
+
+    private static int freeRecords()
+    {
+        final int readIndex = m_ring.getInt(READ_INDEX_OFFSET);
+        // The records released by native code must not be overwritten before it read them
+        VarHandle.acquireFence();
+        return RECORD_COUNT - (m_writeIndex - readIndex);
+    }
+
+    // Returns false if the event does not go through the ring, because the ring is disabled or
+    // full, or events which took their own JNI call are not delivered yet
+    private static boolean reserve(int count)
+    {
+        if (!isEnabled() || count > RECORD_COUNT)
+            return false;
+
+        if (m_ring == null) {
+            m_ring = ByteBuffer.allocateDirect(HEADER_SIZE + RECORD_COUNT * RECORD_SIZE);
+            m_ring.order(ByteOrder.nativeOrder());
+            m_ring.putInt(WAITING_OFFSET, 1);
+            m_logStatistics = Log.isLoggable(QtTAG, Log.VERBOSE);
+            QtInputDelegate.setInputEventRing(m_ring, RECORD_COUNT);
+        }
+
+        final boolean queued = m_ring.getInt(QUEUED_OFFSET) != 0;
+        VarHandle.acquireFence();
+        if (queued || freeRecords() < count) {
+            ++m_fallbackCount;
+            return false;
+        }
+        return true;
+    }
+
+    private static void publish(int count, long startTime)
+    {
+        m_writeIndex += count;
+        // The records must be visible before the new write index
+        VarHandle.releaseFence();
+        m_ring.putInt(WRITE_INDEX_OFFSET, m_writeIndex);
+        // Pairs with the fence in native code after it sets the waiting flag
+        VarHandle.fullFence();
+        if (m_ring.getInt(WAITING_OFFSET) != 0) {
+            m_ring.putInt(WAITING_OFFSET, 0);
+            ++m_wakeUpCount;
+            QtInputDelegate.wakeInputEventRing();
+        }
+
+        if (m_logStatistics) {
+            m_postTime += System.nanoTime() - startTime;
+            if (++m_eventCount % STATISTICS_INTERVAL == 0) {
+                Log.v(QtTAG, m_eventCount + " events, " + m_wakeUpCount + " wake ups, "
+                        + m_fallbackCount + " events past the ring, "
+                        + m_postTime / m_eventCount + " ns per event");
+            }
+        }
+    }
+
+    static boolean postKey(int type, int key, int unicode, int modifier, boolean autoRepeat,
+                           long eventTime)
+    {
+        final long startTime = m_logStatistics ? System.nanoTime() : 0;
+        if (!reserve(1))
+            return false;
+
+        final int offset = recordOffset(m_writeIndex);
+        m_ring.putInt(offset, type);
+        m_ring.putInt(offset + 4, key);
+        m_ring.putInt(offset + 8, unicode);
+        m_ring.putInt(offset + 12, modifier);
+        m_ring.putInt(offset + 16, autoRepeat ? 1 : 0);
+        m_ring.putInt(offset + EVENT_TIME_OFFSET, (int) eventTime);
+        publish(1, startTime);
+        return true;
+    }
+
+    static boolean postMouse(int type, int winId, float x, float y, float hDelta, float vDelta,
+                             long eventTime)
+    {
+        final long startTime = m_logStatistics ? System.nanoTime() : 0;
+        if (!reserve(1))
+            return false;
+
+        final int offset = recordOffset(m_writeIndex);
+        m_ring.putInt(offset, type);
+        m_ring.putInt(offset + 4, winId);
+        m_ring.putFloat(offset + FLOATS_OFFSET, x);
+        m_ring.putFloat(offset + FLOATS_OFFSET + 4, y);
+        m_ring.putFloat(offset + FLOATS_OFFSET + 8, hDelta);
+        m_ring.putFloat(offset + FLOATS_OFFSET + 12, vDelta);
+        m_ring.putInt(offset + EVENT_TIME_OFFSET, (int) eventTime);
+        publish(1, startTime);
+        return true;
+    }
+
+    // pointers and velocities are packed like for QtInputDelegate.touchEvent(), velocities
+    // can be null
+    static boolean postTouch(int winId, int action, int pointerCount, float[] pointers,
+                             float[] velocities, long eventTime)
+    {
+        final long startTime = m_logStatistics ? System.nanoTime() : 0;
+        if (pointerCount == 0 || !reserve(pointerCount))
+            return false;
+
+        for (int i = 0; i < pointerCount; ++i) {
+            final int offset = recordOffset(m_writeIndex + i);
+            m_ring.putInt(offset, TOUCH);
+            m_ring.putInt(offset + 4, winId);
+            m_ring.putInt(offset + 8, action);
+            m_ring.putInt(offset + 12, (i << 16) | pointerCount);
+            final int stride = QtInputDelegate.TOUCH_POINT_STRIDE;
+            for (int j = 0; j < stride; ++j)
+                m_ring.putFloat(offset + FLOATS_OFFSET + j * 4, pointers[i * stride + j]);
+            m_ring.putFloat(offset + FLOATS_OFFSET + stride * 4,
+                            velocities != null ? velocities[i * 2] : 0);
+            m_ring.putFloat(offset + FLOATS_OFFSET + stride * 4 + 4,
+                            velocities != null ? velocities[i * 2 + 1] : 0);
+            m_ring.putInt(offset + EVENT_TIME_OFFSET, (int) eventTime);
+        }
+        publish(pointerCount, startTime);
+        return true;
+    }
+}
@@ -0,0 +1,112 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR LGPL-3.0-only OR GPL-2.0-only OR GPL-3.0-only
+
+package org.qtproject.qt.android;
+
+import android.view.MotionEvent;
+
+import java.util.Arrays;
+
+// Input latency histograms, enabled with the QT_ANDROID_INPUT_LATENCY environment variable.
+// Latencies are measured from the event time of the MotionEvent or KeyEvent, both when the
+// event reaches Qt's entry points and when androidjniinput.cpp hands it to
+// QWindowSystemInterface, which it records with the event time it received along with the
+// event. Events coalesced or dropped on the way are not recorded at the native stage.
+public class QtInputLatency {
+    // Input types
+    public static final int TOUCH = 0;
+    public static final int MOUSE = 1;
+    public static final int TABLET = 2;
+    public static final int KEY = 3;
+    private static final int TYPE_COUNT = 4;
+
+    // Stages
+    public static final int ENTRY = 0;
+    public static final int NATIVE = 1;
+    private static final int STAGE_COUNT = 2;
+
+    // Logarithmic buckets of a quarter octave, from 1 microsecond to about 2 minutes
+    private static final int BUCKETS_PER_OCTAVE = 4;
+    private static final int BUCKET_COUNT = 27 * BUCKETS_PER_OCTAVE;
+
+    private static Boolean m_enabled = null;
+    private static final long[][][] m_histograms = new long[TYPE_COUNT][STAGE_COUNT][BUCKET_COUNT];
+    private static final long[][] m_counts = new long[TYPE_COUNT][STAGE_COUNT];
+
+    private QtInputLatency() {}
+
+    static boolean isEnabled()
+    {
+        if (m_enabled == null)
+            m_enabled = System.getenv("QT_ANDROID_INPUT_LATENCY") != null;
+        return m_enabled;
+    }
+
+    static int motionEventType(MotionEvent event)
+    {
+        switch (event.getToolType(0)) {
+            case MotionEvent.TOOL_TYPE_MOUSE:
+                return MOUSE;
+            case MotionEvent.TOOL_TYPE_STYLUS:
+            case MotionEvent.TOOL_TYPE_ERASER:
+                return TABLET;
+            default:
+                return TOUCH;
+        }
+    }
+
+    // eventTime is in the SystemClock.uptimeMillis() time base, which uses the same
+    // monotonic clock as System.nanoTime()
+    static void record(int type, int stage, long eventTime)
+    {
+        record(type, stage, eventTime, System.nanoTime());
+    }
+
+    // Called from native code, with the time the event was handed to Qt
+    static synchronized void record(int type, int stage, long eventTime, long timeNanos)
+    {
+        long latencyUs = (timeNanos - eventTime * 1000000L) / 1000L;
+        int bucket = 0;
+        if (latencyUs > 1) {
+            bucket = (int) (Math.log(latencyUs) / Math.log(2) * BUCKETS_PER_OCTAVE);
+            bucket = Math.min(bucket, BUCKET_COUNT - 1);
+        }
+        ++m_histograms[type][stage][bucket];
+        ++m_counts[type][stage];
+    }
+
+    /**
+     * Returns the latency in microseconds below which the given percentage of the events
+     * of the type were recorded at the stage, or -1 if none was recorded.
+     **/
+    public static synchronized long percentile(int type, int stage, double percentile)
+    {
+        long count = m_counts[type][stage];
+        if (count == 0)
+            return -1;
+
+        long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; ++bucket) {
+            seen += m_histograms[type][stage][bucket];
+            if (seen >= Math.max(rank, 1))
+                return (long) Math.pow(2, (double) (bucket + 1) / BUCKETS_PER_OCTAVE);
+        }
+        return (long) Math.pow(2, (double) BUCKET_COUNT / BUCKETS_PER_OCTAVE);
+    }
+
+    public static synchronized long count(int type, int stage)
+    {
+        return m_counts[type][stage];
+    }
+
+    public static synchronized void reset()
+    {
+        for (int type = 0; type < TYPE_COUNT; ++type) {
+            for (int stage = 0; stage < STAGE_COUNT; ++stage) {
+                Arrays.fill(m_histograms[type][stage], 0);
+                m_counts[type][stage] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR LGPL-3.0-only OR GPL-2.0-only OR GPL-3.0-only
+
+package org.qtproject.qt.android;
+
+// Mirror of the text around the selection of the focused Qt editor, used by QtInputConnection
+// to answer the queries of the input method without calling into native code. The native
+// input context sends the parts of the text that changed, when the QT_ANDROID_IME_TEXT_MIRROR
+// environment variable is set. Until then, and whenever the mirror is out of date, the
+// queries return null and QtInputConnection asks the native side instead.
+class QtInputTextMirror
+{
+    private static final StringBuilder m_text = new StringBuilder();
+    // Serial of the last update, 0 while there is no text to apply the next changes to
+    private static int m_serial = 0;
+    private static boolean m_valid = false;
+    private static boolean m_enabled = false;
+    private static boolean m_syncRequested = false;
+    private static int m_batchEditNestingLevel = 0;
+
+    // Absolute positions in the text of the editor
+    private static int m_offset = 0;
+    private static int m_selectionStart = 0;
+    private static int m_selectionEnd = 0;
+    private static int m_composingStart = -1;
+    private static int m_composingEnd = -1;
+    private static int m_capsMode = 0;
+    private static boolean m_atStart = false;
+    private static boolean m_atEnd = false;
+
+    private QtInputTextMirror() {}
+
+    // Called from the Qt thread once native code processed an edit or the text changed
+    static synchronized void update(int baseSerial, int serial, int offset,
+                                    int replaceStart, int replaceEnd, String replacement,
+                                    int selectionStart, int selectionEnd,
+                                    int composingStart, int composingEnd, int capsMode,
+                                    boolean atStart, boolean atEnd)
+    {
+        m_enabled = true;
+        if (baseSerial == 0) {
+            m_text.setLength(0);
+        } else if (baseSerial != m_serial) {
+            // An update was missed, the next query asks for the whole text again
+            m_serial = 0;
+            m_valid = false;
+            return;
+        }
+
+        m_text.replace(replaceStart, replaceEnd, replacement);
+        m_serial = serial;
+        m_offset = offset;
+        m_selectionStart = selectionStart;
+        m_selectionEnd = selectionEnd;
+        m_composingStart = composingStart;
+        m_composingEnd = composingEnd;
+        m_capsMode = capsMode;
+        m_atStart = atStart;
+        m_atEnd = atEnd;
+        m_valid = m_batchEditNestingLevel == 0;
+        m_syncRequested = false;
+    }
+
+    // Called from the Qt thread when the focused editor changes
+    static synchronized void reset()
+    {
+        m_text.setLength(0);
+        m_serial = 0;
+        m_valid = false;
+        m_syncRequested = false;
+    }
+
+    // Called before an edit is sent to native code, which updates the mirror once done
+    static synchronized void invalidate()
+    {
+        m_valid = false;
+        m_syncRequested = false;
+    }
+
+    static synchronized void beginBatchEdit()
+    {
+        ++m_batchEditNestingLevel;
+        invalidate();
+    }
+
+    static synchronized void endBatchEdit()
+    {
+        if (m_batchEditNestingLevel > 0)
+            --m_batchEditNestingLevel;
+        invalidate();
+    }
+
+    private static synchronized boolean needsSync()
+    {
+        if (m_valid || !m_enabled || m_syncRequested || m_batchEditNestingLevel > 0)
+            return false;
+        m_syncRequested = true;
+        return true;
+    }
+
+    // Returns whether the mirror can answer a query. Native code is only asked
+    // to send the text again once per edit, and never during a batch edit, when it
+    // holds back the updates until the batch ends.
+    private static boolean isValid()
+    {
+        // Called without holding the lock, native code updates the mirror before returning
+        if (needsSync())
+            QtNativeInputConnection.syncTextMirror();
+        synchronized (QtInputTextMirror.class) {
+            return m_valid;
+        }
+    }
+
+    static String getTextBeforeCursor(int length)
+    {
+        if (!isValid())
+            return null;
+
+        synchronized (QtInputTextMirror.class) {
+            if (!m_valid)
+                return null;
+            final int end = m_selectionStart - m_offset;
+            int start = end - Math.max(length, 0);
+            if (start < 0) {
+                if (!m_atStart)
+                    return null;
+                start = 0;
+            }
+            return m_text.substring(start, end);
+        }
+    }
+
+    static String getTextAfterCursor(int length)
+    {
+        if (!isValid())
+            return null;
+
+        synchronized (QtInputTextMirror.class) {
+            if (!m_valid)
+                return null;
+            final int start = m_selectionEnd - m_offset;
+            int end = start + Math.max(length, 0);
+            if (end > m_text.length()) {
+                if (!m_atEnd)
+                    return null;
+                end = m_text.length();
+            }
+            return m_text.substring(start, end);
+        }
+    }
+
+    // Returns an empty string when nothing is selected
+    static String getSelectedText()
+    {
+        if (!isValid())
+            return null;
+
+        synchronized (QtInputTextMirror.class) {
+            if (!m_valid)
+                return null;
+            return m_text.substring(m_selectionStart - m_offset, m_selectionEnd - m_offset);
+        }
+    }
+
+    // Returns -1 when the mirror cannot answer
+    static int getCursorCapsMode()
+    {
+        if (!isValid())
+            return -1;
+
+        synchronized (QtInputTextMirror.class) {
+            return m_valid ? m_capsMode : -1;
+        }
+    }
+
+    // The mirror can only answer when it holds the whole text, and the text is within
+    // the hints, which native code may honor
+    static QtExtractedText getExtractedText(int hintMaxChars, int hintMaxLines)
+    {
+        if (!isValid())
+            return null;
+
+        synchronized (QtInputTextMirror.class) {
+            if (!m_valid || !m_atStart || !m_atEnd)
+                return null;
+            if (hintMaxChars > 0 && m_text.length() > hintMaxChars)
+                return null;
+            if (hintMaxLines > 0) {
+                int lines = 1;
+                for (int i = 0; i < m_text.length(); ++i) {
+                    if (m_text.charAt(i) == '\n' && ++lines > hintMaxLines)
+                        return null;
+                }
+            }
+            QtExtractedText extractedText = new QtExtractedText();
+            extractedText.partialStartOffset = -1;
+            extractedText.partialEndOffset = -1;
+            extractedText.startOffset = m_offset;
+            extractedText.selectionStart = m_selectionStart - m_offset;
+            extractedText.selectionEnd = m_selectionEnd - m_offset;
+            extractedText.text = m_text.toString();
+            return extractedText;
+        }
+    }
+}
@@ -91,6 +91,8 @@ public abstract class QtLoader {
         String backgroundRunning = getMetaData("android.app.background_running");
         setEnvironmentVariable("QT_BLOCK_EVENT_LOOPS_WHEN_SUSPENDED", backgroundRunning);
         setEnvironmentVariable("QTRACE_LOCATION", getMetaData("android.app.trace_location"));
+        if (getBooleanMetaData("android.app.low_latency_input"))
+            setEnvironmentVariable("QT_ANDROID_LOW_LATENCY_INPUT", "1");
         setApplicationParameters(getMetaData("android.app.arguments"));
     }
 
@@ -310,6 +312,23 @@ public abstract class QtLoader {
         return metadata.getString(key);
     }
 
+    /**
+     * Returns the context level metadata set to true, either as a boolean or as a string.
+     **/
+    protected boolean getBooleanMetaData(String key) {
+        if (m_contextInfo == null)
+            return false;
+
+        Bundle metadata = m_contextInfo.metaData;
+        if (metadata == null || !metadata.containsKey(key))
+            return false;
+
+        Object value = metadata.get(key);
+        if (value instanceof Boolean)
+            return (Boolean) value;
+        return Boolean.parseBoolean(String.valueOf(value));
+    }
+
     @SuppressLint("DiscouragedApi")
     private ArrayList<String> getQtLibrariesList() {
         int id = m_resources.getIdentifier("qt_libs", "array", m_packageName);
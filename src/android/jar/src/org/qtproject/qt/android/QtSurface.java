@@ -70,6 +70,16 @@ public class QtSurface extends SurfaceView implements SurfaceHolder.Callback
         // In case when Surface is moved, we should also add this move to event position
         event.setLocation(event.getX() + getX(), event.getY() + getY());
 
+        // Deliver every sample of the gesture as soon as it arrives, instead of once per frame
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN
+                && QtInputDelegate.isLowLatencyInputEnabled()) {
+            requestUnbufferedDispatch(event);
+        }
+
+        if (QtInputLatency.isEnabled()) {
+            QtInputLatency.record(QtInputLatency.motionEventType(event), QtInputLatency.ENTRY,
+                                  event.getEventTime());
+        }
         QtInputDelegate.sendTouchEvent(event, getId());
         m_gestureDetector.onTouchEvent(event);
         return true;
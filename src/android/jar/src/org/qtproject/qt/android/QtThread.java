@@ -3,15 +3,22 @@
 
 package org.qtproject.qt.android;
 
+import android.os.Process;
+import android.util.Log;
+
 import java.util.ArrayList;
 import java.util.concurrent.Semaphore;
 
 public class QtThread {
     private ArrayList<Runnable> m_pendingRunnables = new ArrayList<Runnable>();
     private boolean m_exit = false;
+    // Linux thread id, and the priority to restore after the input is done
+    private volatile int m_tid = 0;
+    private int m_inputPriority = Integer.MIN_VALUE;
     private Thread m_qtThread = new Thread(new Runnable() {
         @Override
         public void run() {
+            m_tid = Process.myTid();
             while (!m_exit) {
                 try {
                     ArrayList<Runnable> pendingRunnables;
@@ -61,6 +68,27 @@ public class QtThread {
         }
     }
 
+    // Raises the priority of the thread running the Qt event loop to the urgent display
+    // priority while the user touches the screen, in the low latency input mode
+    void setInputActive(boolean active)
+    {
+        if (m_tid == 0 || active == (m_inputPriority != Integer.MIN_VALUE))
+            return;
+
+        try {
+            if (active) {
+                m_inputPriority = Process.getThreadPriority(m_tid);
+                Process.setThreadPriority(m_tid, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+            } else {
+                final int priority = m_inputPriority;
+                m_inputPriority = Integer.MIN_VALUE;
+                Process.setThreadPriority(m_tid, priority);
+            }
+        } catch (IllegalArgumentException | SecurityException e) {
+            Log.w("QtThread", "Could not change the priority of the Qt thread: " + e);
+        }
+    }
+
     public void exit()
     {
         m_exit = true;
@@ -0,0 +1,135 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR LGPL-3.0-only OR GPL-2.0-only OR GPL-3.0-only
+
+package org.qtproject.qt.android;
+
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+
+// Velocity of the touch points, enabled with the QT_ANDROID_TOUCH_VELOCITY environment
+// variable. The velocity is estimated by the platform VelocityTracker with a least squares fit
+// over the recent samples of each pointer, including the historical samples of coalesced moves,
+// and reported as QEventPoint::velocity(), the touch device then having the Velocity capability.
+// Predicting the positions is not done: the touch points keep their measured positions, and it
+// is up to the application to extrapolate them with the velocity if it wants to.
+class QtTouchVelocity
+{
+    private static final String QtTAG = "QtTouchVelocity";
+
+    private static Boolean m_enabled = null;
+    private static VelocityTracker m_velocityTracker = null;
+
+    // How far a linear extrapolation with the reported velocity lands from the next sample,
+    // logged at the end of each gesture with "adb shell setprop log.tag.QtTouchVelocity VERBOSE"
+    private static boolean m_logStatistics = false;
+    // x, y, x velocity, y velocity and event time of the last sample of each pointer
+    private static final SparseArray<double[]> m_lastSamples = new SparseArray<>();
+    private static double m_predictionError = 0;
+    private static double m_unpredictedError = 0;
+    private static double m_sampleInterval = 0;
+    private static int m_sampleCount = 0;
+
+    private QtTouchVelocity() {}
+
+    static boolean isEnabled()
+    {
+        if (m_enabled == null)
+            m_enabled = System.getenv("QT_ANDROID_TOUCH_VELOCITY") != null;
+        return m_enabled;
+    }
+
+    // Called for every touch event while enabled, even for the moves which are coalesced
+    // before reaching native code
+    static void addMovement(MotionEvent event)
+    {
+        if (m_velocityTracker == null) {
+            m_velocityTracker = VelocityTracker.obtain();
+            m_logStatistics = Log.isLoggable(QtTAG, Log.VERBOSE);
+        }
+
+        final int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            m_velocityTracker.clear();
+            m_lastSamples.clear();
+        }
+
+        if (m_logStatistics && action == MotionEvent.ACTION_MOVE)
+            measureError(event);
+
+        m_velocityTracker.addMovement(event);
+        m_velocityTracker.computeCurrentVelocity(1000);
+
+        if (m_logStatistics) {
+            if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL)
+                logStatistics();
+            else
+                rememberSamples(event);
+        }
+    }
+
+    // In device pixels per second, like the positions
+    static float getXVelocity(int pointerId)
+    {
+        return m_velocityTracker.getXVelocity(pointerId);
+    }
+
+    static float getYVelocity(int pointerId)
+    {
+        return m_velocityTracker.getYVelocity(pointerId);
+    }
+
+    private static void measureError(MotionEvent event)
+    {
+        final int historySize = event.getHistorySize();
+        for (int i = 0; i < event.getPointerCount(); ++i) {
+            final double[] last = m_lastSamples.get(event.getPointerId(i));
+            if (last == null)
+                continue;
+            // The first sample of the event is the next one after the last sample seen
+            final float x = historySize > 0 ? event.getHistoricalX(i, 0) : event.getX(i);
+            final float y = historySize > 0 ? event.getHistoricalY(i, 0) : event.getY(i);
+            final long time = historySize > 0 ? event.getHistoricalEventTime(0)
+                                              : event.getEventTime();
+            final double dt = (time - last[4]) / 1000.0;
+            m_predictionError += Math.hypot(x - (last[0] + last[2] * dt),
+                                            y - (last[1] + last[3] * dt));
+            m_unpredictedError += Math.hypot(x - last[0], y - last[1]);
+            m_sampleInterval += dt;
+            ++m_sampleCount;
+        }
+    }
+
+    private static void rememberSamples(MotionEvent event)
+    {
+        for (int i = 0; i < event.getPointerCount(); ++i) {
+            final int pointerId = event.getPointerId(i);
+            double[] last = m_lastSamples.get(pointerId);
+            if (last == null) {
+                last = new double[5];
+                m_lastSamples.put(pointerId, last);
+            }
+            last[0] = event.getX(i);
+            last[1] = event.getY(i);
+            last[2] = getXVelocity(pointerId);
+            last[3] = getYVelocity(pointerId);
+            last[4] = event.getEventTime();
+        }
+    }
+
+    private static void logStatistics()
+    {
+        if (m_sampleCount > 0) {
+            Log.v(QtTAG, "Mean error over " + m_sampleCount + " samples, "
+                    + Math.round(m_sampleInterval / m_sampleCount * 1000) + " ms apart: "
+                    + (float) (m_predictionError / m_sampleCount) + " px extrapolated, "
+                    + (float) (m_unpredictedError / m_sampleCount) + " px without");
+        }
+        m_predictionError = 0;
+        m_unpredictedError = 0;
+        m_sampleInterval = 0;
+        m_sampleCount = 0;
+        m_lastSamples.clear();
+    }
+}
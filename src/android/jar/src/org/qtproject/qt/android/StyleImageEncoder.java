@@ -0,0 +1,175 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR LGPL-3.0-only OR GPL-2.0-only OR GPL-3.0-only
+
+package org.qtproject.qt.android;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Encodes the bitmaps extracted by ExtractStyle, in the format selected with the
+// android.app.extract_android_style_image_format meta-data
+class StyleImageEncoder {
+    static final String PNG = "png";
+    static final String PNG_FAST = "png_fast";
+    static final String WEBP = "webp";
+    static final String RAW = "raw";
+
+    // Raw images: a header of five little endian ints (magic, width, height, bytes per line,
+    // premultiplied) followed by the RGBA pixels, so they can be mapped instead of decoded.
+    // Keep in sync with the reader in qandroidstyle.cpp.
+    static final int RAW_MAGIC = 0x31525351; // "QSR1"
+    static final int RAW_HEADER_SIZE = 5 * 4;
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+
+    private static final String QtTAG = "QtExtractStyle";
+
+    private final String m_format;
+
+    StyleImageEncoder(String format) {
+        if (!format.equals(PNG) && !format.equals(PNG_FAST) && !format.equals(WEBP)
+                && !format.equals(RAW)) {
+            Log.e(QtTAG, "Invalid extract_android_style_image_format \"" + format
+                    + "\", defaulting to \"" + PNG + "\"");
+            format = PNG;
+        }
+
+        // Lossless WebP needs Android 11, older versions only have a lossy encoder
+        if (format.equals(WEBP) && Build.VERSION.SDK_INT < Build.VERSION_CODES.R)
+            format = PNG;
+
+        m_format = format;
+    }
+
+    String fileSuffix() {
+        switch (m_format) {
+            case WEBP:
+                return ".webp";
+            case RAW:
+                return ".raw";
+            default:
+                return ".png";
+        }
+    }
+
+    boolean isRaw() {
+        return m_format.equals(RAW);
+    }
+
+    void encode(Bitmap bitmap, OutputStream out) throws IOException {
+        switch (m_format) {
+            case PNG_FAST:
+                writeFastPng(bitmap, out);
+                break;
+            case WEBP:
+                bitmap.compress(Bitmap.CompressFormat.WEBP_LOSSLESS, 100, out);
+                break;
+            case RAW:
+                writeRaw(bitmap, out);
+                break;
+            default:
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                break;
+        }
+    }
+
+    // Returns the bitmap in the raw image layout, in a direct buffer the native
+    // style can read without copying it
+    static ByteBuffer toRawBuffer(Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+            bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(RAW_HEADER_SIZE + bitmap.getByteCount());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(RAW_MAGIC);
+        buffer.putInt(bitmap.getWidth());
+        buffer.putInt(bitmap.getHeight());
+        buffer.putInt(bitmap.getRowBytes());
+        buffer.putInt(bitmap.isPremultiplied() ? 1 : 0);
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    static void writeRaw(ByteBuffer buffer, OutputStream out) throws IOException {
+        // Write a view of the buffer, it may be read concurrently
+        Channels.newChannel(out).write(buffer.duplicate());
+    }
+
+    private static void writeRaw(Bitmap bitmap, OutputStream out) throws IOException {
+        writeRaw(toRawBuffer(bitmap), out);
+    }
+
+    // Bitmap.compress() ignores the quality for PNG and always uses the slowest
+    // compression level, so write RGBA PNGs with the fastest one instead
+    private static void writeFastPng(Bitmap bitmap, OutputStream out) throws IOException {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        ByteArrayOutputStream imageData = new ByteArrayOutputStream();
+        try {
+            DeflaterOutputStream deflaterStream = new DeflaterOutputStream(imageData, deflater);
+            int[] pixels = new int[width];
+            byte[] scanline = new byte[1 + width * 4];
+            for (int y = 0; y < height; ++y) {
+                bitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+                // scanline[0] is the filter type, always "None"
+                for (int x = 0, i = 1; x < width; ++x) {
+                    final int pixel = pixels[x];
+                    scanline[i++] = (byte) (pixel >> 16);
+                    scanline[i++] = (byte) (pixel >> 8);
+                    scanline[i++] = (byte) pixel;
+                    scanline[i++] = (byte) (pixel >>> 24);
+                }
+                deflaterStream.write(scanline);
+            }
+            deflaterStream.finish();
+        } finally {
+            deflater.end();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width);
+        header.putInt(height);
+        header.put((byte) 8); // bit depth
+        header.put((byte) 6); // color type, RGBA
+        header.put((byte) 0); // compression
+        header.put((byte) 0); // filter
+        header.put((byte) 0); // interlace
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(PNG_SIGNATURE);
+        writePngChunk(data, "IHDR", header.array());
+        writePngChunk(data, "IDAT", imageData.toByteArray());
+        writePngChunk(data, "IEND", new byte[0]);
+        data.flush();
+    }
+
+    private static void writePngChunk(DataOutputStream out, String type, byte[] data)
+            throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+}
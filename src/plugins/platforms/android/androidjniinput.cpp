@@ -15,7 +15,13 @@
 #include <QPointer>
 
 #include <QGuiApplication>
+#include <QMutex>
 #include <QtMath>
+#include <QVarLengthArray>
+
+#include <cstring>
+#include <functional>
+#include <time.h>
 
 QT_BEGIN_NAMESPACE
 
@@ -24,6 +30,8 @@ Q_LOGGING_CATEGORY(lcQpaInputMethods, "qt.qpa.input.methods");
 using namespace QtAndroid;
 
 Q_DECLARE_JNI_CLASS(QtLayout, "org/qtproject/qt/android/QtLayout")
+Q_DECLARE_JNI_CLASS(QtInputLatency, "org/qtproject/qt/android/QtInputLatency")
+Q_DECLARE_JNI_CLASS(QtGamepadAxes, "org/qtproject/qt/android/QtGamepadAxes")
 
 namespace QtAndroidInput
 {
@@ -52,6 +60,38 @@ namespace QtAndroidInput
         return ret;
     }
 
+    GamepadAxisListener::~GamepadAxisListener() {}
+    namespace {
+    struct GamepadAxisListeners {
+        QMutex mutex;
+        QList<QtAndroidInput::GamepadAxisListener *> listeners;
+    };
+    }
+    Q_GLOBAL_STATIC(GamepadAxisListeners, g_gamepadAxisListeners)
+
+    // The values batched by QtGamepadAxes, with a device id and axis pair per value
+    static void gamepadAxes(JNIEnv *env, jclass, jint count, jintArray axes, jfloatArray values,
+                            jlongArray timestamps)
+    {
+        QVarLengthArray<jint, 64> axisData(count * 2);
+        env->GetIntArrayRegion(axes, 0, axisData.size(), axisData.data());
+        QVarLengthArray<jfloat, 32> valueData(count);
+        env->GetFloatArrayRegion(values, 0, valueData.size(), valueData.data());
+        QVarLengthArray<jlong, 32> timestampData(count);
+        env->GetLongArrayRegion(timestamps, 0, timestampData.size(), timestampData.data());
+
+        QList<GamepadAxisValue> axisValues;
+        axisValues.reserve(count);
+        for (int i = 0; i < count; ++i) {
+            axisValues.append({ axisData[i * 2], axisData[i * 2 + 1], valueData[i],
+                                qint64(timestampData[i]) });
+        }
+
+        QMutexLocker locker(&g_gamepadAxisListeners()->mutex);
+        for (auto *listener : std::as_const(g_gamepadAxisListeners()->listeners))
+            listener->handleGamepadAxes(axisValues);
+    }
+
     KeyEventListener::~KeyEventListener() {}
     namespace {
     struct KeyEventListeners {
@@ -74,12 +114,37 @@ namespace QtAndroidInput
     {
         QMutexLocker locker(&g_genericMotionEventListeners()->mutex);
         g_genericMotionEventListeners()->listeners.push_back(listener);
+        if (g_genericMotionEventListeners()->listeners.size() == 1) {
+            QtJniTypes::QtGamepadAxes::callStaticMethod<void>("setGenericMotionListeners",
+                                                              jboolean(true));
+        }
     }
 
     void unregisterGenericMotionEventListener(QtAndroidInput::GenericMotionEventListener *listener)
     {
         QMutexLocker locker(&g_genericMotionEventListeners()->mutex);
-        g_genericMotionEventListeners()->listeners.removeOne(listener);
+        if (g_genericMotionEventListeners()->listeners.removeOne(listener)
+                && g_genericMotionEventListeners()->listeners.isEmpty()) {
+            QtJniTypes::QtGamepadAxes::callStaticMethod<void>("setGenericMotionListeners",
+                                                              jboolean(false));
+        }
+    }
+
+    void registerGamepadAxisListener(QtAndroidInput::GamepadAxisListener *listener)
+    {
+        QMutexLocker locker(&g_gamepadAxisListeners()->mutex);
+        g_gamepadAxisListeners()->listeners.push_back(listener);
+        if (g_gamepadAxisListeners()->listeners.size() == 1)
+            QtJniTypes::QtGamepadAxes::callStaticMethod<void>("setEnabled", jboolean(true));
+    }
+
+    void unregisterGamepadAxisListener(QtAndroidInput::GamepadAxisListener *listener)
+    {
+        QMutexLocker locker(&g_gamepadAxisListeners()->mutex);
+        if (g_gamepadAxisListeners()->listeners.removeOne(listener)
+                && g_gamepadAxisListeners()->listeners.isEmpty()) {
+            QtJniTypes::QtGamepadAxes::callStaticMethod<void>("setEnabled", jboolean(false));
+        }
     }
 
     void registerKeyEventListener(QtAndroidInput::KeyEventListener *listener)
@@ -109,6 +174,21 @@ namespace QtAndroidInput
                                            candidatesEnd);
     }
 
+    void updateExtractedText(int startOffset, int partialStartOffset, int partialEndOffset,
+                             const QString &text, int selectionStart, int selectionEnd)
+    {
+        qCDebug(lcQpaInputMethods) << ">>> UPDATEEXTRACTEDTEXT" << startOffset
+                                   << partialStartOffset << partialEndOffset << text
+                                   << selectionStart << selectionEnd;
+        qtInputDelegate().callMethod<void>("updateExtractedText",
+                                           startOffset,
+                                           partialStartOffset,
+                                           partialEndOffset,
+                                           QJniObject::fromString(text).object<jstring>(),
+                                           selectionStart,
+                                           selectionEnd);
+    }
+
     void showSoftwareKeyboard(int left, int top, int width, int height, int inputHints, int enterKeyType)
     {
         qtInputDelegate().callMethod<void>("showSoftwareKeyboard",
@@ -160,28 +240,63 @@ namespace QtAndroidInput
                                            anchor.x(), anchor.y(), rtl);
     }
 
-    static void mouseDown(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint x, jint y)
+    qint64 inputLatencyPercentile(InputType type, InputLatencyStage stage, double percentile)
+    {
+        return QtJniTypes::QtInputLatency::callStaticMethod<jlong>("percentile", jint(type),
+                                                                   jint(stage), percentile);
+    }
+
+    static bool inputLatencyEnabled()
+    {
+        static const bool enabled = qEnvironmentVariableIsSet("QT_ANDROID_INPUT_LATENCY");
+        return enabled;
+    }
+
+    // In the time base of System.nanoTime() and SystemClock.uptimeMillis()
+    static qint64 monotonicNanos()
+    {
+        timespec now;
+        clock_gettime(CLOCK_MONOTONIC, &now);
+        return qint64(now.tv_sec) * 1000000000 + now.tv_nsec;
+    }
+
+    // Records the native stage of the input latency, called right after an event was handed
+    // to QWindowSystemInterface with the event time of the Android input event, in milliseconds
+    static void recordInputLatency(InputType type, qint64 eventTime)
+    {
+        if (!inputLatencyEnabled())
+            return;
+
+        QtJniTypes::QtInputLatency::callStaticMethod<void>("record", jint(type),
+                                                           jint(InputLatencyStage::Native),
+                                                           jlong(eventTime),
+                                                           jlong(monotonicNanos()));
+    }
+
+    static void runInInputEventOrder(std::function<void()> handler);
+
+    static void mouseDown(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jfloat x, jfloat y)
     {
         if (m_ignoreMouseEvents)
             return;
 
-        const QPoint globalPos(x,y);
-        QWindow *tlw = topLevelWindowAt(globalPos);
+        const QPointF globalPos(x, y);
+        QWindow *tlw = topLevelWindowAt(globalPos.toPoint());
         m_mouseGrabber = tlw;
-        const QPoint localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobal(globalPos) : globalPos;
+        const QPointF localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobalF(globalPos) : globalPos;
         QWindowSystemInterface::handleMouseEvent(tlw, localPos, globalPos,
                                                  Qt::MouseButtons(Qt::LeftButton),
                                                  Qt::LeftButton, QEvent::MouseButtonPress);
     }
 
-    static void mouseUp(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint x, jint y)
+    static void mouseUp(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jfloat x, jfloat y)
     {
-        const QPoint globalPos(x,y);
+        const QPointF globalPos(x, y);
         QWindow *tlw = m_mouseGrabber.data();
         if (!tlw)
-            tlw = topLevelWindowAt(globalPos);
+            tlw = topLevelWindowAt(globalPos.toPoint());
 
-        const QPoint localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobal(globalPos) : globalPos;
+        const QPointF localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobalF(globalPos) : globalPos;
         QWindowSystemInterface::handleMouseEvent(tlw, localPos, globalPos,
                                                  Qt::MouseButtons(Qt::NoButton),
                                                  Qt::LeftButton, QEvent::MouseButtonRelease);
@@ -189,32 +304,32 @@ namespace QtAndroidInput
         m_mouseGrabber.clear();
     }
 
-    static void mouseMove(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint x, jint y)
+    static void mouseMove(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jfloat x, jfloat y)
     {
 
         if (m_ignoreMouseEvents)
             return;
 
-        const QPoint globalPos(x,y);
+        const QPointF globalPos(x, y);
         QWindow *tlw = m_mouseGrabber.data();
         if (!tlw)
-            tlw = topLevelWindowAt(globalPos);
-        const QPoint localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobal(globalPos) : globalPos;
+            tlw = topLevelWindowAt(globalPos.toPoint());
+        const QPointF localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobalF(globalPos) : globalPos;
         QWindowSystemInterface::handleMouseEvent(tlw, localPos, globalPos,
                                                  Qt::MouseButtons(m_mouseGrabber ? Qt::LeftButton : Qt::NoButton),
                                                  Qt::NoButton, QEvent::MouseMove);
     }
 
-    static void mouseWheel(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint x, jint y, jfloat hdelta, jfloat vdelta)
+    static void mouseWheel(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jfloat x, jfloat y, jfloat hdelta, jfloat vdelta)
     {
         if (m_ignoreMouseEvents)
             return;
 
-        const QPoint globalPos(x,y);
+        const QPointF globalPos(x, y);
         QWindow *tlw = m_mouseGrabber.data();
         if (!tlw)
-            tlw = topLevelWindowAt(globalPos);
-        const QPoint localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobal(globalPos) : globalPos;
+            tlw = topLevelWindowAt(globalPos.toPoint());
+        const QPointF localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobalF(globalPos) : globalPos;
         const QPoint angleDelta(hdelta * 120, vdelta * 120);
 
         QWindowSystemInterface::handleWheelEvent(tlw,
@@ -224,7 +339,7 @@ namespace QtAndroidInput
                                                  angleDelta);
     }
 
-    static void longPress(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint x, jint y)
+    static void handleLongPress(int x, int y)
     {
         QAndroidInputContext *inputContext = QAndroidInputContext::androidInputContext();
         if (inputContext && qGuiApp)
@@ -250,13 +365,20 @@ namespace QtAndroidInput
         }
     }
 
+    static void longPress(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint x, jint y)
+    {
+        runInInputEventOrder([x, y] { handleLongPress(x, y); });
+    }
+
     static void touchBegin(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/)
     {
         m_touchPoints.clear();
     }
 
-    static void touchAdd(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint id, jint action, jboolean /*primary*/, jint x, jint y,
-        jfloat major, jfloat minor, jfloat rotation, jfloat pressure)
+    static void addTouchPoint(QList<QWindowSystemInterface::TouchPoint> &touchPoints,
+                              int id, int action, double x, double y, float major, float minor,
+                              float rotation, float pressure,
+                              const QVector2D &velocity = QVector2D())
     {
         QEventPoint::State state = QEventPoint::State::Stationary;
         switch (action) {
@@ -280,21 +402,38 @@ namespace QtAndroidInput
         touchPoint.id = id;
         touchPoint.pressure = pressure;
         touchPoint.rotation = qRadiansToDegrees(rotation);
-        touchPoint.normalPosition = QPointF(double(x / dw), double(y / dh));
+        touchPoint.normalPosition = QPointF(x / dw, y / dh);
         touchPoint.state = state;
         touchPoint.area = QRectF(x - double(minor),
                                  y - double(major),
                                  double(minor * 2),
                                  double(major * 2));
-        m_touchPoints.push_back(touchPoint);
+        // In device pixels per second like the area, QWindowSystemInterface maps both to
+        // device independent pixels with the high DPI factor of the window
+        touchPoint.velocity = velocity;
+        touchPoints.push_back(touchPoint);
 
         if (state == QEventPoint::State::Pressed) {
             QAndroidInputContext *inputContext = QAndroidInputContext::androidInputContext();
             if (inputContext && qGuiApp)
-                QMetaObject::invokeMethod(inputContext, "touchDown", Q_ARG(int, x), Q_ARG(int, y));
+                QMetaObject::invokeMethod(inputContext, "touchDown", Qt::QueuedConnection,
+                                          Q_ARG(int, int(x)), Q_ARG(int, int(y)));
         }
     }
 
+    static void touchAdd(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint id, jint action, jboolean /*primary*/, jint x, jint y,
+        jfloat major, jfloat minor, jfloat rotation, jfloat pressure)
+    {
+        addTouchPoint(m_touchPoints, id, action, x, y, major, minor, rotation, pressure);
+    }
+
+    // The touch points then have the velocity estimated by QtTouchVelocity
+    static bool touchVelocityEnabled()
+    {
+        static const bool enabled = qEnvironmentVariableIsSet("QT_ANDROID_TOUCH_VELOCITY");
+        return enabled;
+    }
+
     static QPointingDevice *getTouchDevice()
     {
         QAndroidPlatformIntegration *platformIntegration = QtAndroid::androidPlatformIntegration();
@@ -303,14 +442,16 @@ namespace QtAndroidInput
 
         QPointingDevice *touchDevice = platformIntegration->touchDevice();
         if (!touchDevice) {
+            QPointingDevice::Capabilities capabilities = QPointingDevice::Capability::Position
+                                                       | QPointingDevice::Capability::Area
+                                                       | QPointingDevice::Capability::Pressure
+                                                       | QPointingDevice::Capability::NormalizedPosition;
+            if (touchVelocityEnabled())
+                capabilities |= QPointingDevice::Capability::Velocity;
             touchDevice = new QPointingDevice("Android touchscreen", 1,
                                               QInputDevice::DeviceType::TouchScreen,
                                               QPointingDevice::PointerType::Finger,
-                                              QPointingDevice::Capability::Position
-                                                    | QPointingDevice::Capability::Area
-                                                    | QPointingDevice::Capability::Pressure
-                                                    | QPointingDevice::Capability::NormalizedPosition,
-                                              10, 0);
+                                              capabilities, 10, 0);
             QWindowSystemInterface::registerInputDevice(touchDevice);
             platformIntegration->setTouchDevice(touchDevice);
         }
@@ -346,6 +487,112 @@ namespace QtAndroidInput
         QWindowSystemInterface::handleTouchCancelEvent(window, touchDevice);
     }
 
+    // Must be kept in sync with QtInputDelegate.TOUCH_POINT_STRIDE
+    enum { TouchPointStride = 8 };
+
+    // The x and y velocity of the point at index, if QtInputDelegate sent any
+    template <typename Velocities>
+    static QVector2D touchVelocity(const Velocities &velocities, int index)
+    {
+        if (velocities.isEmpty())
+            return QVector2D();
+        return QVector2D(velocities[index * 2], velocities[index * 2 + 1]);
+    }
+
+    // All the pointers of a MotionEvent at once, packed by QtInputDelegate.sendTouchEvent()
+    // as id, action, x, y, major, minor, rotation, pressure. velocities holds the x and y
+    // velocity of each pointer, it is null unless QtTouchVelocity is enabled.
+    static void touchEvent(JNIEnv *env, jobject /*thiz*/, jint winId, jint action, jint pointerCount,
+                           jfloatArray pointers, jfloatArray velocities, jlong eventTime)
+    {
+        QVarLengthArray<jfloat, 10 * TouchPointStride> data(pointerCount * TouchPointStride);
+        env->GetFloatArrayRegion(pointers, 0, data.size(), data.data());
+        QVarLengthArray<jfloat, 10 * 2> velocityData(velocities ? pointerCount * 2 : 0);
+        if (velocities)
+            env->GetFloatArrayRegion(velocities, 0, velocityData.size(), velocityData.data());
+
+        runInInputEventOrder([=] {
+            m_touchPoints.clear();
+            for (int i = 0; i < pointerCount; ++i) {
+                const jfloat *pointer = data.constData() + i * TouchPointStride;
+                addTouchPoint(m_touchPoints, int(pointer[0]), int(pointer[1]), pointer[2],
+                              pointer[3], pointer[4], pointer[5], pointer[6], pointer[7],
+                              touchVelocity(velocityData, i));
+            }
+
+            if (action == 3)
+                touchCancel(nullptr, nullptr, winId);
+            else
+                touchEnd(nullptr, nullptr, winId, action);
+            recordInputLatency(InputType::Touch, eventTime);
+        });
+    }
+
+    // Like touchEvent(), for the touch points of the input event ring
+    static void handleTouchPoints(int action, const QList<QWindowSystemInterface::TouchPoint> &touchPoints)
+    {
+        if (touchPoints.isEmpty())
+            return;
+
+        QMutexLocker lock(QtAndroid::platformInterfaceMutex());
+        const QPointingDevice *touchDevice = getTouchDevice();
+        if (!touchDevice)
+            return;
+
+        QWindow *window = QtAndroid::topLevelWindowAt(touchPoints.at(0).area.center().toPoint());
+        if (action == 3)
+            QWindowSystemInterface::handleTouchCancelEvent(window, touchDevice);
+        else
+            QWindowSystemInterface::handleTouchEvent(window, touchDevice, touchPoints);
+    }
+
+    // Like touchEvent(), with the historical samples of a coalesced MotionEvent first.
+    // Every sample is delivered as its own touch event, with its event time.
+    static void touchHistoryEvent(JNIEnv *env, jobject /*thiz*/, jint /*winId*/, jint action,
+                                  jint pointerCount, jint sampleCount, jlongArray timestamps,
+                                  jfloatArray pointers, jfloatArray velocities)
+    {
+        const int sampleSize = pointerCount * TouchPointStride;
+        QVarLengthArray<jfloat, 10 * TouchPointStride> data(sampleCount * sampleSize);
+        env->GetFloatArrayRegion(pointers, 0, data.size(), data.data());
+        QVarLengthArray<jfloat, 10 * 2> velocityData(velocities ? sampleCount * pointerCount * 2
+                                                                : 0);
+        if (velocities)
+            env->GetFloatArrayRegion(velocities, 0, velocityData.size(), velocityData.data());
+        QVarLengthArray<jlong, 16> times(sampleCount);
+        env->GetLongArrayRegion(timestamps, 0, times.size(), times.data());
+
+        runInInputEventOrder([=] {
+            QMutexLocker lock(QtAndroid::platformInterfaceMutex());
+            const QPointingDevice *touchDevice = getTouchDevice();
+            if (!touchDevice)
+                return;
+
+            for (int sample = 0; sample < sampleCount; ++sample) {
+                m_touchPoints.clear();
+                for (int i = 0; i < pointerCount; ++i) {
+                    const jfloat *pointer = data.constData() + sample * sampleSize
+                                            + i * TouchPointStride;
+                    addTouchPoint(m_touchPoints, int(pointer[0]), int(pointer[1]), pointer[2],
+                                  pointer[3], pointer[4], pointer[5], pointer[6], pointer[7],
+                                  touchVelocity(velocityData, sample * pointerCount + i));
+                }
+                if (m_touchPoints.isEmpty())
+                    return;
+
+                QWindow *window = QtAndroid::topLevelWindowAt(m_touchPoints.at(0).area.center().toPoint());
+                if (action == 3 && sample == sampleCount - 1) {
+                    QWindowSystemInterface::handleTouchCancelEvent(window, ulong(times[sample]),
+                                                                   touchDevice);
+                } else {
+                    QWindowSystemInterface::handleTouchEvent(window, ulong(times[sample]),
+                                                             touchDevice, m_touchPoints);
+                }
+            }
+            recordInputLatency(InputType::Touch, times[sampleCount - 1]);
+        });
+    }
+
     static bool isTabletEventSupported(JNIEnv */*env*/, jobject /*thiz*/)
     {
 #if QT_CONFIG(tabletevent)
@@ -355,10 +602,11 @@ namespace QtAndroidInput
 #endif // QT_CONFIG(tabletevent)
     }
 
-    static void tabletEvent(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint deviceId, jlong time, jint action,
-        jint pointerType, jint buttonState, jfloat x, jfloat y, jfloat pressure)
-    {
 #if QT_CONFIG(tabletevent)
+    static void handleTabletEvent(int deviceId, ulong time, int action, int pointerType,
+                                  int buttonState, float x, float y, float pressure,
+                                  int xTilt = 0, int yTilt = 0, float rotation = 0, int z = 0)
+    {
         const QPointF globalPosF(x, y);
         QWindow *tlw = topLevelWindowAt(globalPosF.toPoint());
         const QPointF localPos = tlw && tlw->handle() ? tlw->handle()->mapFromGlobalF(globalPosF) : globalPosF;
@@ -397,7 +645,80 @@ namespace QtAndroidInput
 
         QWindowSystemInterface::handleTabletEvent(tlw, ulong(time),
             localPos, globalPosF, int(QInputDevice::DeviceType::Stylus), pointerType,
-            buttons, pressure, 0, 0, 0., 0., 0, deviceId, Qt::NoModifier);
+            buttons, pressure, xTilt, yTilt, 0., rotation, z, deviceId, Qt::NoModifier);
+    }
+#endif // QT_CONFIG(tabletevent)
+
+    static void tabletEvent(JNIEnv */*env*/, jobject /*thiz*/, jint /*winId*/, jint deviceId, jlong time, jint action,
+        jint pointerType, jint buttonState, jfloat x, jfloat y, jfloat pressure)
+    {
+#if QT_CONFIG(tabletevent)
+        runInInputEventOrder([=] {
+            handleTabletEvent(deviceId, ulong(time), action, pointerType, buttonState, x, y,
+                              pressure);
+            recordInputLatency(InputType::Tablet, time);
+        });
+#else
+        Q_UNUSED(deviceId);
+        Q_UNUSED(time);
+        Q_UNUSED(action);
+        Q_UNUSED(pointerType);
+        Q_UNUSED(buttonState);
+        Q_UNUSED(x);
+        Q_UNUSED(y);
+        Q_UNUSED(pressure);
+#endif // QT_CONFIG(tabletevent)
+    }
+
+    // Must be kept in sync with QtInputDelegate.TABLET_POINT_STRIDE
+    enum { TabletPointStride = 9 };
+
+    // All the stylus pointers of a MotionEvent, with all their historical samples, packed by
+    // QtInputDelegate.sendTabletEvent() as id, pointer type, action, x, y, pressure, tilt,
+    // orientation and distance
+    static void tabletEvents(JNIEnv *env, jobject /*thiz*/, jint /*winId*/, jint deviceId,
+                             jint buttonState, jint pointerCount, jint sampleCount,
+                             jlongArray timestamps, jfloatArray pointers)
+    {
+#if QT_CONFIG(tabletevent)
+        const int sampleSize = pointerCount * TabletPointStride;
+        QVarLengthArray<jfloat, 4 * TabletPointStride> data(sampleCount * sampleSize);
+        env->GetFloatArrayRegion(pointers, 0, data.size(), data.data());
+        QVarLengthArray<jlong, 16> times(sampleCount);
+        env->GetLongArrayRegion(timestamps, 0, times.size(), times.data());
+
+        runInInputEventOrder([=] {
+            for (int sample = 0; sample < sampleCount; ++sample) {
+                for (int i = 0; i < pointerCount; ++i) {
+                    const jfloat *pointer = data.constData() + sample * sampleSize
+                                            + i * TabletPointStride;
+                    const int pointerType = int(pointer[1]);
+                    if (pointerType == 0) // not a stylus
+                        continue;
+
+                    // Android gives the tilt away from the perpendicular and its direction,
+                    // clockwise from north, both in radians
+                    const float tilt = qRadiansToDegrees(pointer[6]);
+                    const float orientation = pointer[7];
+                    const int xTilt = qRound(tilt * qSin(orientation));
+                    const int yTilt = qRound(-tilt * qCos(orientation));
+                    handleTabletEvent(deviceId, ulong(times[sample]), int(pointer[2]),
+                                      pointerType, buttonState, pointer[3], pointer[4],
+                                      pointer[5], xTilt, yTilt, qRadiansToDegrees(orientation),
+                                      qRound(pointer[8]));
+                }
+            }
+            if (sampleCount > 0)
+                recordInputLatency(InputType::Tablet, times[sampleCount - 1]);
+        });
+#else
+        Q_UNUSED(env);
+        Q_UNUSED(deviceId);
+        Q_UNUSED(buttonState);
+        Q_UNUSED(pointerCount);
+        Q_UNUSED(sampleCount);
+        Q_UNUSED(timestamps);
+        Q_UNUSED(pointers);
 #endif // QT_CONFIG(tabletevent)
     }
 
@@ -846,6 +1167,224 @@ namespace QtAndroidInput
                                                autoRepeat);
     }
 
+    // The input event ring shared with QtInputEventRing.java, keep the layout in sync.
+    // The UI thread writes the records and the write index, and only the Qt thread reads the
+    // records and advances the read index. Before it goes idle the Qt thread sets the waiting
+    // flag, which makes the UI thread wake it up with wakeInputEventRing(). The events which
+    // do not go through the ring are queued to the Qt thread while it holds events, see
+    // runInInputEventOrder().
+    enum InputEventRingType {
+        KeyDownRecord = 1,
+        KeyUpRecord = 2,
+        MouseDownRecord = 3,
+        MouseUpRecord = 4,
+        MouseMoveRecord = 5,
+        MouseWheelRecord = 6,
+        TouchRecord = 7
+    };
+
+    // type is a KeyDownRecord or KeyUpRecord
+    static void handleKeyEvent(int type, int key, int unicode, int modifier, bool autoRepeat,
+                               qint64 eventTime)
+    {
+        if (type == KeyDownRecord)
+            keyDown(nullptr, nullptr, key, unicode, modifier, autoRepeat);
+        else
+            keyUp(nullptr, nullptr, key, unicode, modifier, autoRepeat);
+        recordInputLatency(InputType::Key, eventTime);
+    }
+
+    // type is one of the mouse records
+    static void handleMouseEvent(int type, int winId, float x, float y, float hDelta,
+                                 float vDelta, qint64 eventTime)
+    {
+        switch (type) {
+        case MouseDownRecord:
+            mouseDown(nullptr, nullptr, winId, x, y);
+            break;
+        case MouseUpRecord:
+            mouseUp(nullptr, nullptr, winId, x, y);
+            break;
+        case MouseMoveRecord:
+            mouseMove(nullptr, nullptr, winId, x, y);
+            break;
+        case MouseWheelRecord:
+            mouseWheel(nullptr, nullptr, winId, x, y, hDelta, vDelta);
+            break;
+        default:
+            qWarning() << "Unknown mouse event" << type;
+            return;
+        }
+        recordInputLatency(InputType::Mouse, eventTime);
+    }
+
+    // Used when the event does not go through the ring
+    static void keyEvent(JNIEnv */*env*/, jobject /*thiz*/, jint type, jint key, jint unicode,
+                         jint modifier, jboolean autoRepeat, jlong eventTime)
+    {
+        runInInputEventOrder([=] {
+            handleKeyEvent(type, key, unicode, modifier, autoRepeat, eventTime);
+        });
+    }
+
+    static void mouseEvent(JNIEnv */*env*/, jobject /*thiz*/, jint type, jint winId, jfloat x,
+                           jfloat y, jfloat hDelta, jfloat vDelta, jlong eventTime)
+    {
+        runInInputEventOrder([=] {
+            handleMouseEvent(type, winId, x, y, hDelta, vDelta, eventTime);
+        });
+    }
+
+    enum {
+        InputEventRingWriteIndexOffset = 0,
+        InputEventRingReadIndexOffset = 64,
+        InputEventRingWaitingOffset = 128,
+        InputEventRingQueuedOffset = 132,
+        InputEventRingHeaderSize = 192,
+        InputEventRecordSize = 64,
+        InputEventRecordFloatsOffset = 20,
+        InputEventRecordEventTimeOffset = 60
+    };
+
+    // Set on the UI thread before the first wake up of the Qt thread
+    static uchar *m_inputEventRing = nullptr;
+    static quint32 m_inputEventRingRecordCount = 0;
+
+    static inline jint *inputEventRingInt(int offset)
+    {
+        return reinterpret_cast<jint *>(m_inputEventRing + offset);
+    }
+
+    static void setInputEventRing(JNIEnv *env, jobject /*thiz*/, jobject ring, jint recordCount)
+    {
+        // The ring is never released
+        ring = env->NewGlobalRef(ring);
+        m_inputEventRing = static_cast<uchar *>(env->GetDirectBufferAddress(ring));
+        m_inputEventRingRecordCount = recordCount;
+    }
+
+    // The records only keep the low 32 bits of the event time, which was taken a moment ago
+    static qint64 inputEventRecordTime(jint storedTime)
+    {
+        const qint64 now = monotonicNanos() / 1000000;
+        return now - qint32(quint32(now) - quint32(storedTime));
+    }
+
+    static void handleInputEventRecord(const uchar *record,
+                                       QList<QWindowSystemInterface::TouchPoint> &touchPoints)
+    {
+        jint ints[5];
+        // A touch record has the x and y velocity after the packed pointer
+        jfloat floats[TouchPointStride + 2];
+        jint eventTime;
+        memcpy(ints, record, sizeof(ints));
+        memcpy(floats, record + InputEventRecordFloatsOffset, sizeof(floats));
+        memcpy(&eventTime, record + InputEventRecordEventTimeOffset, sizeof(eventTime));
+
+        switch (ints[0]) {
+        case KeyDownRecord:
+        case KeyUpRecord:
+            handleKeyEvent(ints[0], ints[1], ints[2], ints[3], ints[4],
+                           inputEventRecordTime(eventTime));
+            break;
+        case MouseDownRecord:
+        case MouseUpRecord:
+        case MouseMoveRecord:
+        case MouseWheelRecord:
+            handleMouseEvent(ints[0], ints[1], floats[0], floats[1], floats[2], floats[3],
+                             inputEventRecordTime(eventTime));
+            break;
+        case TouchRecord: {
+            // One record per pointer, delivered with the last one
+            const int pointerIndex = ints[3] >> 16;
+            const int pointerCount = ints[3] & 0xffff;
+            if (pointerIndex == 0)
+                touchPoints.clear();
+            addTouchPoint(touchPoints, int(floats[0]), int(floats[1]), floats[2], floats[3],
+                          floats[4], floats[5], floats[6], floats[7],
+                          QVector2D(floats[TouchPointStride], floats[TouchPointStride + 1]));
+            if (pointerIndex == pointerCount - 1) {
+                handleTouchPoints(ints[2], touchPoints);
+                recordInputLatency(InputType::Touch, inputEventRecordTime(eventTime));
+            }
+            break;
+        }
+        default:
+            qWarning() << "Unknown input event record" << ints[0];
+            break;
+        }
+    }
+
+    // Only called on the Qt thread
+    static void drainInputEventRecords()
+    {
+        if (!m_inputEventRing)
+            return;
+
+        jint *writeIndex = inputEventRingInt(InputEventRingWriteIndexOffset);
+        jint *readIndex = inputEventRingInt(InputEventRingReadIndexOffset);
+        jint *waiting = inputEventRingInt(InputEventRingWaitingOffset);
+        QList<QWindowSystemInterface::TouchPoint> touchPoints;
+        quint32 read = quint32(__atomic_load_n(readIndex, __ATOMIC_RELAXED));
+        forever {
+            const quint32 write = quint32(__atomic_load_n(writeIndex, __ATOMIC_ACQUIRE));
+            for (; read != write; ++read) {
+                const uchar *record = m_inputEventRing + InputEventRingHeaderSize
+                        + (read & (m_inputEventRingRecordCount - 1)) * InputEventRecordSize;
+                handleInputEventRecord(record, touchPoints);
+                // Hands the record back to the UI thread
+                __atomic_store_n(readIndex, jint(read + 1), __ATOMIC_RELEASE);
+            }
+
+            // Pairs with the full fence of the UI thread between writing the write index and
+            // reading the waiting flag: either it sees the flag, or we see its new events
+            __atomic_store_n(waiting, 1, __ATOMIC_SEQ_CST);
+            if (quint32(__atomic_load_n(writeIndex, __ATOMIC_SEQ_CST)) == read)
+                break;
+            __atomic_store_n(waiting, 0, __ATOMIC_RELAXED);
+        }
+    }
+
+    static void wakeInputEventRing(JNIEnv */*env*/, jobject /*thiz*/)
+    {
+        if (qGuiApp) {
+            QMetaObject::invokeMethod(qGuiApp, [] { drainInputEventRecords(); }, Qt::QueuedConnection);
+        } else {
+            // The events stay in the ring, the next one wakes the Qt thread again
+            __atomic_store_n(inputEventRingInt(InputEventRingWaitingOffset), 1, __ATOMIC_RELAXED);
+        }
+    }
+
+    // Called on the UI thread for an event which does not go through the ring, because it is
+    // full or because of the kind of event. While the ring holds events which the Qt thread did
+    // not deliver yet, or earlier events are still queued, the handler is queued to the Qt
+    // thread after them. The count of the queued handlers is in the ring header, and
+    // QtInputEventRing.java does not write to the ring until it drops to 0, so that no event
+    // gets ahead of a queued one.
+    static void runInInputEventOrder(std::function<void()> handler)
+    {
+        if (!m_inputEventRing || !qGuiApp) {
+            handler();
+            return;
+        }
+
+        jint *queued = inputEventRingInt(InputEventRingQueuedOffset);
+        const jint read = __atomic_load_n(inputEventRingInt(InputEventRingReadIndexOffset),
+                                          __ATOMIC_ACQUIRE);
+        const jint write = *inputEventRingInt(InputEventRingWriteIndexOffset);
+        if (__atomic_load_n(queued, __ATOMIC_ACQUIRE) == 0 && read == write) {
+            handler();
+            return;
+        }
+
+        __atomic_fetch_add(queued, 1, __ATOMIC_RELAXED);
+        QMetaObject::invokeMethod(qGuiApp, [handler = std::move(handler), queued] {
+            drainInputEventRecords();
+            handler();
+            __atomic_fetch_sub(queued, 1, __ATOMIC_RELEASE);
+        }, Qt::QueuedConnection);
+    }
+
     static void keyboardVisibilityChanged(JNIEnv */*env*/, jobject /*thiz*/, jboolean visibility)
     {
         if (!visibility)
@@ -891,20 +1430,28 @@ namespace QtAndroidInput
         {"touchAdd","(IIIZIIFFFF)V",(void*)touchAdd},
         {"touchEnd","(II)V",(void*)touchEnd},
         {"touchCancel", "(I)V", (void *)touchCancel},
-        {"mouseDown", "(III)V", (void *)mouseDown},
-        {"mouseUp", "(III)V", (void *)mouseUp},
-        {"mouseMove", "(III)V", (void *)mouseMove},
-        {"mouseWheel", "(IIIFF)V", (void *)mouseWheel},
+        {"touchEvent", "(III[F[FJ)V", (void *)touchEvent},
+        {"touchHistoryEvent", "(IIII[J[F[F)V", (void *)touchHistoryEvent},
+        {"mouseDown", "(IFF)V", (void *)mouseDown},
+        {"mouseUp", "(IFF)V", (void *)mouseUp},
+        {"mouseMove", "(IFF)V", (void *)mouseMove},
+        {"mouseWheel", "(IFFFF)V", (void *)mouseWheel},
         {"longPress", "(III)V", (void *)longPress},
         {"isTabletEventSupported", "()Z", (void *)isTabletEventSupported},
         {"tabletEvent", "(IIJIIIFFF)V", (void *)tabletEvent},
+        {"tabletEvents", "(IIIII[J[F)V", (void *)tabletEvents},
         {"keyDown", "(IIIZ)V", (void *)keyDown},
         {"keyUp", "(IIIZ)V", (void *)keyUp},
+        {"keyEvent", "(IIIIZJ)V", (void *)keyEvent},
+        {"mouseEvent", "(IIFFFFJ)V", (void *)mouseEvent},
         {"keyboardVisibilityChanged", "(Z)V", (void *)keyboardVisibilityChanged},
         {"keyboardGeometryChanged", "(IIII)V", (void *)keyboardGeometryChanged},
         {"handleLocationChanged", "(III)V", (void *)handleLocationChanged},
         {"dispatchGenericMotionEvent", "(Landroid/view/MotionEvent;)Z", reinterpret_cast<void *>(dispatchGenericMotionEvent)},
         {"dispatchKeyEvent", "(Landroid/view/KeyEvent;)Z", reinterpret_cast<void *>(dispatchKeyEvent)},
+        {"gamepadAxes", "(I[I[F[J)V", reinterpret_cast<void *>(gamepadAxes)},
+        {"setInputEventRing", "(Ljava/nio/ByteBuffer;I)V", (void *)setInputEventRing},
+        {"wakeInputEventRing", "()V", (void *)wakeInputEventRing},
     };
 
     bool registerNatives(QJniEnvironment &env)
@@ -24,6 +24,8 @@ namespace QtAndroidInput
     bool isSoftwareKeyboardVisible();
     QRect softwareKeyboardRect();
     void updateSelection(int selStart, int selEnd, int candidatesStart, int candidatesEnd);
+    void updateExtractedText(int startOffset, int partialStartOffset, int partialEndOffset,
+                             const QString &text, int selectionStart, int selectionEnd);
     // Software keyboard support
 
     // cursor/selection handles
@@ -31,6 +33,12 @@ namespace QtAndroidInput
                        QPoint cursor = QPoint(), QPoint anchor = QPoint(), bool rtl = false);
     int getSelectHandleWidth();
 
+    // Input latency, recorded when QT_ANDROID_INPUT_LATENCY is set.
+    // Must be kept in sync with QtInputLatency.java
+    enum class InputType { Touch, Mouse, Tablet, Key };
+    enum class InputLatencyStage { Entry, Native };
+    qint64 inputLatencyPercentile(InputType type, InputLatencyStage stage, double percentile);
+
     class GenericMotionEventListener
     {
     public:
@@ -38,6 +46,24 @@ namespace QtAndroidInput
         virtual bool handleGenericMotionEvent(jobject event) = 0;
     };
 
+    struct GamepadAxisValue
+    {
+        int deviceId;
+        int axis; // one of the MotionEvent.AXIS_* values
+        float value;
+        qint64 timestamp;
+    };
+
+    // Gets the changed axis values of game controllers once per frame, in the order they
+    // changed. The joystick and gamepad move events still reach the generic motion event
+    // listeners, one by one, when any are registered.
+    class GamepadAxisListener
+    {
+    public:
+        virtual ~GamepadAxisListener();
+        virtual void handleGamepadAxes(const QList<GamepadAxisValue> &values) = 0;
+    };
+
     class KeyEventListener
     {
     public:
@@ -48,6 +74,9 @@ namespace QtAndroidInput
     void registerGenericMotionEventListener(GenericMotionEventListener *listener);
     void unregisterGenericMotionEventListener(GenericMotionEventListener *listener);
 
+    void registerGamepadAxisListener(GamepadAxisListener *listener);
+    void unregisterGamepadAxisListener(GamepadAxisListener *listener);
+
     void registerKeyEventListener(KeyEventListener *listener);
     void unregisterKeyEventListener(KeyEventListener *listener);
 
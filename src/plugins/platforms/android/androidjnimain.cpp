@@ -18,6 +18,7 @@
 #include "qandroidplatformdialoghelpers.h"
 #include "qandroidplatformintegration.h"
 #include "qandroidplatformclipboard.h"
+#include "qandroidplatformtheme.h"
 
 #include <android/api-level.h>
 #include <android/asset_manager_jni.h>
@@ -772,6 +773,24 @@ static void handleUiDarkModeChanged(JNIEnv */*env*/, jobject /*thiz*/, jint newU
 }
 Q_DECLARE_JNI_NATIVE_METHOD(handleUiDarkModeChanged)
 
+static void handleStyleSectionExtracted(JNIEnv */*env*/, jclass /*clazz*/)
+{
+    // Redraw the controls which used the fallback style while their section was extracted
+    QMetaObject::invokeMethod(qGuiApp, [] { QWindowSystemInterface::handleThemeChange(); });
+}
+Q_DECLARE_JNI_NATIVE_METHOD(handleStyleSectionExtracted)
+
+static void handleStyleExtracted(JNIEnv */*env*/, jclass /*clazz*/)
+{
+    // The style was not extracted in time and the default style is used,
+    // reload the palettes, fonts and controls
+    QMetaObject::invokeMethod(qGuiApp, [] {
+        if (QAndroidPlatformTheme *theme = QAndroidPlatformTheme::instance())
+            theme->updateColorScheme();
+    });
+}
+Q_DECLARE_JNI_NATIVE_METHOD(handleStyleExtracted)
+
 static void onActivityResult(JNIEnv */*env*/, jclass /*cls*/,
                              jint requestCode,
                              jint resultCode,
@@ -841,6 +860,7 @@ if (!VAR) { \
 }
 
 Q_DECLARE_JNI_CLASS(QtDisplayManager, "org/qtproject/qt/android/QtDisplayManager")
+Q_DECLARE_JNI_CLASS(ExtractStyle, "org/qtproject/qt/android/ExtractStyle")
 
 static bool registerNatives(QJniEnvironment &env)
 {
@@ -871,6 +891,13 @@ static bool registerNatives(QJniEnvironment &env)
         return JNI_FALSE;
     }
 
+    if (!env.registerNativeMethods(QtJniTypes::Traits<QtJniTypes::ExtractStyle>::className(),
+                                   { Q_JNI_NATIVE_METHOD(handleStyleSectionExtracted),
+                                     Q_JNI_NATIVE_METHOD(handleStyleExtracted) })) {
+        qCritical() << "ExtractStyle: registerNativeMethods() failed";
+        return JNI_FALSE;
+    }
+
     jmethodID methodID;
     GET_AND_CHECK_STATIC_METHOD(methodID, m_applicationClass, "activity", "()Landroid/app/Activity;");
     jobject contextObject = env->CallStaticObjectMethod(m_applicationClass, methodID);
@@ -15,6 +15,7 @@
 
 #include <QTextBoundaryFinder>
 #include <QTextCharFormat>
+#include <QVarLengthArray>
 #include <QtCore/QJniEnvironment>
 #include <QtCore/QJniObject>
 #include <qevent.h>
@@ -27,6 +28,8 @@
 
 QT_BEGIN_NAMESPACE
 
+Q_DECLARE_JNI_CLASS(QtInputTextMirror, "org/qtproject/qt/android/QtInputTextMirror")
+
 namespace {
 
 class BatchEditLock
@@ -67,6 +70,24 @@ static jfieldID m_selectionStartFieldID = 0;
 static jfieldID m_startOffsetFieldID = 0;
 static jfieldID m_textFieldID = 0;
 
+// Number of characters mirrored on each side of the selection
+static const int TextMirrorWindow = 1024;
+
+// InputConnection.GET_EXTRACTED_TEXT_MONITOR
+static const jint ExtractedTextMonitor = 0x00000001;
+
+static bool usePartialExtractedText()
+{
+    static bool partialExtractedText = qEnvironmentVariableIntValue("QT_ANDROID_PARTIAL_EXTRACTED_TEXT");
+    return partialExtractedText;
+}
+
+static bool useTextMirror()
+{
+    static bool textMirror = qEnvironmentVariableIntValue("QT_ANDROID_IME_TEXT_MIRROR");
+    return textMirror;
+}
+
 static void runOnQtThread(const std::function<void()> &func)
 {
     AndroidDeadlockProtector protector;
@@ -312,6 +333,89 @@ static jboolean updateCursorPosition(JNIEnv */*env*/, jobject /*thiz*/)
     return true;
 }
 
+// Keep in sync with QtBatchEdit in QtInputConnection.java
+enum BatchEditType {
+    CommitTextEdit = 0,
+    DeleteSurroundingTextEdit = 1,
+    FinishComposingTextEdit = 2,
+    SetComposingTextEdit = 3,
+    SetComposingRegionEdit = 4,
+    SetSelectionEdit = 5
+};
+
+static const int BatchEditStride = 3; // type, two arguments
+
+static jboolean applyBatchEdit(JNIEnv *env, jobject /*thiz*/, jboolean begin, jboolean end,
+                               jintArray edits, jobjectArray texts)
+{
+    if (!m_androidInputContext)
+        return JNI_FALSE;
+
+    const jsize count = env->GetArrayLength(texts);
+    QVarLengthArray<jint, 16 * BatchEditStride> values(count * BatchEditStride);
+    env->GetIntArrayRegion(edits, 0, values.size(), values.data());
+
+    QVarLengthArray<QString, 16> strings(count);
+    for (jsize i = 0; i < count; ++i) {
+        jstring text = static_cast<jstring>(env->GetObjectArrayElement(texts, i));
+        if (!text)
+            continue;
+        const jchar *jstr = env->GetStringChars(text, nullptr);
+        strings[i] = QString(reinterpret_cast<const QChar *>(jstr), env->GetStringLength(text));
+        env->ReleaseStringChars(text, jstr);
+        env->DeleteLocalRef(text);
+    }
+
+    qCDebug(lcQpaInputMethods) << "@@@ BATCHEDIT" << begin << end << count;
+    jboolean res = JNI_TRUE;
+    runOnQtThread([&]{
+        if (begin)
+            m_androidInputContext->beginBatchEdit();
+        for (jsize i = 0; i < count; ++i) {
+            const jint *edit = values.constData() + i * BatchEditStride;
+            jboolean editRes = JNI_FALSE;
+            switch (edit[0]) {
+            case CommitTextEdit:
+                editRes = m_androidInputContext->commitText(strings[i], edit[1]);
+                break;
+            case DeleteSurroundingTextEdit:
+                editRes = m_androidInputContext->deleteSurroundingText(edit[1], edit[2]);
+                break;
+            case FinishComposingTextEdit:
+                editRes = m_androidInputContext->finishComposingText();
+                break;
+            case SetComposingTextEdit:
+                editRes = m_androidInputContext->setComposingText(strings[i], edit[1]);
+                break;
+            case SetComposingRegionEdit:
+                editRes = m_androidInputContext->setComposingRegion(edit[1], edit[2]);
+                break;
+            case SetSelectionEdit:
+                editRes = m_androidInputContext->setSelection(edit[1], edit[2]);
+                break;
+            default:
+                qWarning() << "Unknown batch edit" << edit[0];
+                break;
+            }
+            if (!editRes)
+                res = JNI_FALSE;
+        }
+        if (end)
+            m_androidInputContext->endBatchEdit();
+    });
+    return res;
+}
+
+static void syncTextMirror(JNIEnv */*env*/, jobject /*thiz*/)
+{
+    if (!m_androidInputContext)
+        return;
+
+    qCDebug(lcQpaInputMethods) << "@@@ SYNCTEXTMIRROR";
+
+    runOnQtThread([&]{m_androidInputContext->syncTextMirror();});
+}
+
 
 static JNINativeMethod methods[] = {
     {"beginBatchEdit", "()Z", (void *)beginBatchEdit},
@@ -332,7 +436,9 @@ static JNINativeMethod methods[] = {
     {"copy", "()Z", (void *)copy},
     {"copyURL", "()Z", (void *)copyURL},
     {"paste", "()Z", (void *)paste},
-    {"updateCursorPosition", "()Z", (void *)updateCursorPosition}
+    {"updateCursorPosition", "()Z", (void *)updateCursorPosition},
+    {"syncTextMirror", "()V", (void *)syncTextMirror},
+    {"applyBatchEdit", "(ZZ[I[Ljava/lang/String;)Z", (void *)applyBatchEdit}
 };
 
 static QRect screenInputItemRectangle()
@@ -348,6 +454,9 @@ QAndroidInputContext::QAndroidInputContext()
     , m_composingCursor(-1)
     , m_handleMode(Hidden)
     , m_batchEditNestingLevel(0)
+    , m_monitorExtractedText(false)
+    , m_extractedTextMaxChars(0)
+    , m_extractedTextMaxLines(0)
     , m_focusObject(0)
 {
     QJniEnvironment env;
@@ -478,6 +587,9 @@ void QAndroidInputContext::reset()
     clear();
     m_batchEditNestingLevel = 0;
     m_handleMode = Hidden;
+    m_monitorExtractedText = false;
+    m_reportedExtractedText.clear();
+    resetTextMirror();
     if (qGuiApp->focusObject()) {
         QSharedPointer<QInputMethodQueryEvent> query = focusObjectInputMethodQuery(Qt::ImEnabled);
         if (!query.isNull() && query->value(Qt::ImEnabled).toBool()) {
@@ -528,7 +640,122 @@ void QAndroidInputContext::updateCursorPosition()
 
         QtAndroidInput::updateSelection(realSelectionStart, realSelectionEnd,
                                         m_composingTextStart, m_composingTextStart + composeLength); // pre-edit text
+
+        if (m_monitorExtractedText)
+            updateExtractedText();
+
+        // Always send the mirror state, the Java side waits for it after each edit
+        updateTextMirror(true);
+    }
+}
+
+// Returns whether the texts differ, and the lengths of their common prefix and suffix
+static bool changedRange(const QString &oldText, const QString &newText, int *prefix, int *suffix)
+{
+    const int commonLength = qMin(oldText.length(), newText.length());
+    int start = 0;
+    while (start < commonLength && newText.at(start) == oldText.at(start))
+        ++start;
+    int end = 0;
+    while (end < commonLength - start
+           && newText.at(newText.length() - end - 1) == oldText.at(oldText.length() - end - 1)) {
+        ++end;
     }
+    *prefix = start;
+    *suffix = end;
+    return start != commonLength || oldText.length() != newText.length();
+}
+
+void QAndroidInputContext::updateTextMirror(bool force)
+{
+    if (!useTextMirror() || m_batchEditNestingLevel != 0)
+        return;
+
+    QSharedPointer<QInputMethodQueryEvent> query = focusObjectInputMethodQuery();
+    if (query.isNull())
+        return;
+
+    TextMirror mirror;
+    if (focusObjectIsComposing()) {
+        mirror.selectionStart = mirror.selectionEnd = m_composingCursor;
+        mirror.composingStart = m_composingTextStart;
+        mirror.composingEnd = m_composingTextStart + m_composingText.length();
+    } else {
+        const int blockPos = getBlockPosition(query);
+        mirror.selectionStart = blockPos + query->value(Qt::ImCursorPosition).toInt();
+        mirror.selectionEnd = blockPos + query->value(Qt::ImAnchorPosition).toInt();
+        if (mirror.selectionStart > mirror.selectionEnd)
+            std::swap(mirror.selectionStart, mirror.selectionEnd);
+    }
+
+    // Ask for one character more than the window, to know whether it reaches
+    // the start and the end of the text. The focus object counts the lengths from
+    // the cursor, which can be at either end of the selection, and the selected text
+    // is then left out, so the selection is asked for on top.
+    const int selectionLength = mirror.selectionEnd - mirror.selectionStart;
+    QString textBefore = getTextBeforeCursor(TextMirrorWindow + 1 + selectionLength, 0);
+    QString textAfter = getTextAfterCursor(TextMirrorWindow + 1 + selectionLength, 0);
+    mirror.atStart = textBefore.length() <= TextMirrorWindow;
+    mirror.atEnd = textAfter.length() <= TextMirrorWindow;
+    if (!mirror.atStart)
+        textBefore = textBefore.right(TextMirrorWindow);
+    if (!mirror.atEnd)
+        textAfter.truncate(TextMirrorWindow);
+
+    mirror.offset = mirror.selectionStart - textBefore.length();
+    mirror.text = textBefore;
+    if (mirror.selectionStart != mirror.selectionEnd)
+        mirror.text += query->value(Qt::ImCurrentSelection).toString();
+    mirror.text += textAfter;
+    mirror.capsMode = getCursorCapsMode(0);
+
+    // Only send the part of the text that changed since the last update
+    const QString &oldText = m_textMirror.text;
+    int prefix = 0;
+    int suffix = 0;
+    const bool textChanged = changedRange(oldText, mirror.text, &prefix, &suffix);
+
+    const bool unchanged = m_textMirror.serial != 0 && !textChanged
+            && mirror.offset == m_textMirror.offset
+            && mirror.selectionStart == m_textMirror.selectionStart
+            && mirror.selectionEnd == m_textMirror.selectionEnd
+            && mirror.composingStart == m_textMirror.composingStart
+            && mirror.composingEnd == m_textMirror.composingEnd
+            && mirror.capsMode == m_textMirror.capsMode
+            && mirror.atStart == m_textMirror.atStart
+            && mirror.atEnd == m_textMirror.atEnd;
+    if (unchanged && !force)
+        return;
+
+    const int baseSerial = m_textMirror.serial;
+    mirror.serial = baseSerial < INT_MAX ? baseSerial + 1 : 1;
+    const QString replacement = mirror.text.mid(prefix, mirror.text.length() - prefix - suffix);
+    qCDebug(lcQpaInputMethods) << ">>> UPDATETEXTMIRROR" << mirror.serial << mirror.offset
+                               << prefix << oldText.length() - suffix << replacement;
+    QtJniTypes::QtInputTextMirror::callStaticMethod<void>("update",
+            jint(baseSerial), jint(mirror.serial), jint(mirror.offset),
+            jint(prefix), jint(oldText.length() - suffix),
+            QJniObject::fromString(replacement).object<jstring>(),
+            jint(mirror.selectionStart), jint(mirror.selectionEnd),
+            jint(mirror.composingStart), jint(mirror.composingEnd), jint(mirror.capsMode),
+            jboolean(mirror.atStart), jboolean(mirror.atEnd));
+    m_textMirror = mirror;
+}
+
+void QAndroidInputContext::resetTextMirror()
+{
+    if (!useTextMirror())
+        return;
+
+    m_textMirror.clear();
+    QtJniTypes::QtInputTextMirror::callStaticMethod<void>("reset");
+}
+
+void QAndroidInputContext::syncTextMirror()
+{
+    // The Java side lost track of the text, send all of it again
+    m_textMirror.clear();
+    updateTextMirror(true);
 }
 
 bool QAndroidInputContext::isImhNoTextHandlesSet()
@@ -852,6 +1079,9 @@ void QAndroidInputContext::update(Qt::InputMethodQueries queries)
     if (query.isNull())
         return;
 #warning TODO extract the needed data from query
+
+    if (queries & (Qt::ImSurroundingText | Qt::ImCursorPosition | Qt::ImAnchorPosition))
+        updateTextMirror(false);
 }
 
 void QAndroidInputContext::invokeAction(QInputMethod::Action action, int cursorPosition)
@@ -1203,11 +1433,60 @@ jint QAndroidInputContext::getCursorCapsMode(jint /*reqModes*/)
 
 
 
-const QAndroidInputContext::ExtractedText &QAndroidInputContext::getExtractedText(jint /*hintMaxChars*/, jint /*hintMaxLines*/, jint /*flags*/)
+// Keeps at most maxChars characters and maxLines lines of the text around the cursor
+static void limitExtractedText(QAndroidInputContext::ExtractedText &extractedText,
+                               int maxChars, int maxLines)
+{
+    const QString &text = extractedText.text;
+    const int cursor = qBound(0, extractedText.selectionStart, int(text.length()));
+    int begin = 0;
+    int end = text.length();
+    if (maxChars > 0 && end > maxChars) {
+        begin = qMax(0, cursor - maxChars / 2);
+        end = qMin(int(text.length()), begin + maxChars);
+        begin = qMax(0, end - maxChars);
+    }
+
+    if (maxLines > 0) {
+        // Up to half of the lines before the line of the cursor, the rest after it
+        int linesBefore = 0;
+        for (int i = cursor - 1; i >= begin; --i) {
+            if (text.at(i) == u'\n' && ++linesBefore > maxLines / 2) {
+                begin = i + 1;
+                break;
+            }
+        }
+        int lines = qMin(linesBefore, maxLines / 2) + 1;
+        for (int i = cursor; i < end; ++i) {
+            if (text.at(i) == u'\n' && ++lines > maxLines) {
+                end = i;
+                break;
+            }
+        }
+    }
+
+    if (begin == 0 && end == text.length())
+        return;
+
+    extractedText.text = text.mid(begin, end - begin);
+    extractedText.startOffset += begin;
+    extractedText.selectionStart -= begin;
+    extractedText.selectionEnd -= begin;
+}
+
+const QAndroidInputContext::ExtractedText &QAndroidInputContext::getExtractedText(jint hintMaxChars, jint hintMaxLines, jint flags)
 {
     // Note to self: "if the GET_EXTRACTED_TEXT_MONITOR flag is set, you should be calling
     // updateExtractedText(View, int, ExtractedText) whenever you call
     // updateSelection(View, int, int, int, int)."  QTBUG-37980
+    // This is done when QT_ANDROID_PARTIAL_EXTRACTED_TEXT is set, see updateExtractedText().
+
+    const bool partial = usePartialExtractedText();
+    if (partial && (flags & ExtractedTextMonitor)) {
+        m_monitorExtractedText = true;
+        m_extractedTextMaxChars = hintMaxChars;
+        m_extractedTextMaxLines = hintMaxLines;
+    }
 
     QSharedPointer<QInputMethodQueryEvent> query = focusObjectInputMethodQuery(
             Qt::ImCursorPosition | Qt::ImAbsolutePosition | Qt::ImAnchorPosition);
@@ -1221,9 +1500,11 @@ const QAndroidInputContext::ExtractedText &QAndroidInputContext::getExtractedTex
     // characters, but standard Android controls always return all text, and
     // there are input methods out there that (surprise) seem to depend on
     // what happens in reality rather than what's documented.
+    // So the hints are only honored when QT_ANDROID_PARTIAL_EXTRACTED_TEXT is set.
 
-    QVariant textBeforeCursor = QInputMethod::queryFocusObject(Qt::ImTextBeforeCursor, INT_MAX);
-    QVariant textAfterCursor = QInputMethod::queryFocusObject(Qt::ImTextAfterCursor, INT_MAX);
+    const int queryLength = partial && hintMaxChars > 0 ? hintMaxChars : INT_MAX;
+    QVariant textBeforeCursor = QInputMethod::queryFocusObject(Qt::ImTextBeforeCursor, queryLength);
+    QVariant textAfterCursor = QInputMethod::queryFocusObject(Qt::ImTextAfterCursor, queryLength);
     if (textBeforeCursor.isValid() && textAfterCursor.isValid()) {
         if (focusObjectIsComposing()) {
             m_extractedText.text =
@@ -1256,9 +1537,41 @@ const QAndroidInputContext::ExtractedText &QAndroidInputContext::getExtractedTex
             std::swap(m_extractedText.selectionStart, m_extractedText.selectionEnd);
     }
 
+    if (partial)
+        limitExtractedText(m_extractedText, hintMaxChars, hintMaxLines);
+
+    if (m_monitorExtractedText && (flags & ExtractedTextMonitor))
+        m_reportedExtractedText = m_extractedText;
+
     return m_extractedText;
 }
 
+// Sends the part of the extracted text that changed since it was last reported
+// to the input method that asked to monitor it
+void QAndroidInputContext::updateExtractedText()
+{
+    const ExtractedText previous = m_reportedExtractedText;
+    ExtractedText update = getExtractedText(m_extractedTextMaxChars, m_extractedTextMaxLines, 0);
+    m_reportedExtractedText = update;
+
+    if (previous.startOffset == update.startOffset && previous.startOffset != -1) {
+        int prefix = 0;
+        int suffix = 0;
+        // The selection alone is reported by updateSelection()
+        if (!changedRange(previous.text, update.text, &prefix, &suffix))
+            return;
+
+        update.partialStartOffset = prefix;
+        update.partialEndOffset = previous.text.length() - suffix;
+        update.text = update.text.mid(prefix, update.text.length() - prefix - suffix);
+    }
+
+    QtAndroidInput::updateExtractedText(update.startOffset,
+                                        update.partialStartOffset, update.partialEndOffset,
+                                        update.text,
+                                        update.selectionStart, update.selectionEnd);
+}
+
 QString QAndroidInputContext::getSelectedText(jint /*flags*/)
 {
     QSharedPointer<QInputMethodQueryEvent> query = focusObjectInputMethodQuery();
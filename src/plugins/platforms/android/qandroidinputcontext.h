@@ -60,6 +60,31 @@ public:
         QString text;
     };
 
+    // What was last sent to the Java mirror of the text around the cursor
+    struct TextMirror
+    {
+        TextMirror() { clear(); }
+
+        void clear()
+        {
+            serial = 0;
+            offset = selectionStart = selectionEnd = composingStart = composingEnd = capsMode = -1;
+            atStart = atEnd = false;
+            text.clear();
+        }
+
+        int serial;
+        int offset;
+        int selectionStart;
+        int selectionEnd;
+        int composingStart;
+        int composingEnd;
+        int capsMode;
+        bool atStart;
+        bool atEnd;
+        QString text;
+    };
+
 public:
     QAndroidInputContext();
     ~QAndroidInputContext();
@@ -100,6 +125,7 @@ public:
     jboolean copy();
     jboolean copyURL();
     jboolean paste();
+    void syncTextMirror();
 
 public slots:
     void safeCall(const std::function<void()> &func, Qt::ConnectionType conType = Qt::BlockingQueuedConnection);
@@ -121,9 +147,17 @@ private:
     bool focusObjectIsComposing() const;
     void focusObjectStartComposing();
     bool focusObjectStopComposing();
+    void updateTextMirror(bool force);
+    void updateExtractedText();
+    void resetTextMirror();
 
 private:
     ExtractedText m_extractedText;
+    ExtractedText m_reportedExtractedText;
+    bool m_monitorExtractedText;
+    int m_extractedTextMaxChars;
+    int m_extractedTextMaxLines;
+    TextMirror m_textMirror;
     QString m_composingText;
     int m_composingTextStart;
     int m_composingCursor;
@@ -115,6 +115,22 @@ void *QAndroidPlatformNativeInterface::nativeResourceForIntegration(const QByteA
     return 0;
 }
 
+QPlatformNativeInterface::NativeResourceForIntegrationFunction
+QAndroidPlatformNativeInterface::nativeResourceFunctionForIntegration(const QByteArray &resource)
+{
+    if (resource == "AndroidStyleImage") {
+        if (m_androidStyle)
+            return reinterpret_cast<NativeResourceForIntegrationFunction>(&AndroidStyle::loadStyleImage);
+        return nullptr;
+    }
+    if (resource == "AndroidStyleSection") {
+        if (m_androidStyle && qEnvironmentVariableIntValue("QT_ANDROID_STYLE_ON_DEMAND"))
+            return reinterpret_cast<NativeResourceForIntegrationFunction>(&AndroidStyle::loadStyleSection);
+        return nullptr;
+    }
+    return nullptr;
+}
+
 void *QAndroidPlatformNativeInterface::nativeResourceForWindow(const QByteArray &resource, QWindow *window)
 {
 #if QT_CONFIG(vulkan)
@@ -12,7 +12,10 @@
 
 #include <QCoreApplication>
 #include <QDebug>
+#include <QtCore/QJniEnvironment>
+#include <QDir>
 #include <QFileInfo>
+#include <QJsonArray>
 #include <QJsonDocument>
 #include <QVariant>
 
@@ -24,6 +27,9 @@ QT_BEGIN_NAMESPACE
 
 using namespace Qt::StringLiterals;
 
+Q_DECLARE_JNI_CLASS(ExtractStyle, "org/qtproject/qt/android/ExtractStyle")
+Q_DECLARE_JNI_CLASS(ByteBuffer, "java/nio/ByteBuffer")
+
 namespace {
     const int textStyle_bold = 1;
     const int textStyle_italic = 2;
@@ -77,6 +83,20 @@ static int paletteType(const QString &androidControl)
     return -1;
 }
 
+static QVariantMap colorStateList(const QJsonValue &value, const QJsonObject &colorStateLists)
+{
+    // Older style.json files store each color state list in place
+    if (value.isObject())
+        return value.toObject().toVariantMap();
+
+    const QJsonArray stateSets = colorStateLists.value("stateSets"_L1).toArray();
+    const QJsonArray colors = colorStateLists.value("colors"_L1).toArray().at(value.toInt()).toArray();
+    QVariantMap object;
+    for (qsizetype i = 0; i < stateSets.size() && i < colors.size(); ++i)
+        object.insert(stateSets.at(i).toString(), colors.at(i).toVariant());
+    return object;
+}
+
 static void setPaletteColor(const QVariantMap &object,
                                     QPalette &palette,
                                     QPalette::ColorRole role)
@@ -151,19 +171,9 @@ static void setPaletteColor(const QVariantMap &object,
     }
 }
 
-QJsonObject AndroidStyle::loadStyleData()
+static QJsonObject loadStyleFile(const QString &fileName)
 {
-    QString stylePath(QLatin1StringView(qgetenv("ANDROID_STYLE_PATH")));
-    const QLatin1Char slashChar('/');
-    if (!stylePath.isEmpty() && !stylePath.endsWith(slashChar))
-        stylePath += slashChar;
-
-    if (QAndroidPlatformIntegration::colorScheme() == Qt::ColorScheme::Dark)
-        stylePath += "darkUiMode/"_L1;
-
-    Q_ASSERT(!stylePath.isEmpty());
-
-    QFile f(stylePath + "style.json"_L1);
+    QFile f(fileName);
     if (!f.open(QIODevice::ReadOnly))
         return QJsonObject();
 
@@ -181,6 +191,129 @@ QJsonObject AndroidStyle::loadStyleData()
     return document.object();
 }
 
+// style.json and drawables.json have the same structure, drawables.json only holds the
+// drawables. A drawable is an object with a type, any other object holds more values.
+static QJsonObject mergeStyleObjects(QJsonObject core, const QJsonObject &drawables)
+{
+    for (auto it = drawables.constBegin(); it != drawables.constEnd(); ++it) {
+        const QJsonValue value = core.value(it.key());
+        if (value.isObject() && it.value().isObject()
+                && !it.value().toObject().contains("type"_L1)) {
+            core.insert(it.key(), mergeStyleObjects(value.toObject(), it.value().toObject()));
+        } else {
+            core.insert(it.key(), it.value());
+        }
+    }
+    return core;
+}
+
+// ExtractStyle writes the dimensions in dp, so that style.json is the same for every dpi.
+// Turn them into pixels like TypedArray.getDimensionPixelSize() and
+// getDimensionPixelOffset() do.
+static QJsonObject resolveDimensions(QJsonObject object, double density)
+{
+    for (auto it = object.begin(); it != object.end(); ++it) {
+        if (it.value().isObject())
+            *it = resolveDimensions(it.value().toObject(), density);
+    }
+
+    const QJsonObject sizes = object.take("dimensions"_L1).toObject();
+    for (auto it = sizes.constBegin(); it != sizes.constEnd(); ++it) {
+        const float pixels = float(it.value().toDouble() * density);
+        int size = int(pixels >= 0 ? pixels + 0.5f : pixels - 0.5f);
+        if (size == 0 && pixels != 0)
+            size = pixels > 0 ? 1 : -1;
+        object.insert(it.key(), size);
+    }
+
+    const QJsonObject offsets = object.take("dimensionOffsets"_L1).toObject();
+    for (auto it = offsets.constBegin(); it != offsets.constEnd(); ++it)
+        object.insert(it.key(), int(float(it.value().toDouble() * density)));
+    return object;
+}
+
+QJsonObject AndroidStyle::loadStyleData()
+{
+    QString stylePath(QLatin1StringView(qgetenv("ANDROID_STYLE_PATH")));
+    const QLatin1Char slashChar('/');
+    if (!stylePath.isEmpty() && !stylePath.endsWith(slashChar))
+        stylePath += slashChar;
+
+    Q_ASSERT(!stylePath.isEmpty());
+
+    // ANDROID_STYLE_PATH is the directory of the current dpi, style.json is shared by
+    // all the dpis and is in its parent directory
+    QString corePath = QDir::cleanPath(stylePath + ".."_L1) + slashChar;
+
+    if (QAndroidPlatformIntegration::colorScheme() == Qt::ColorScheme::Dark) {
+        stylePath += "darkUiMode/"_L1;
+        corePath += "darkUiMode/"_L1;
+    }
+
+    // The style is extracted in the background, if it is not ready in time use
+    // the built-in defaults instead of blocking the application any longer.
+    // ExtractStyle calls handleStyleExtracted() once it is done, which reloads it.
+    bool ok = false;
+    int timeout = qEnvironmentVariableIntValue("QT_ANDROID_STYLE_EXTRACTION_TIMEOUT", &ok);
+    if (!ok)
+        timeout = 3000;
+    if (!QtJniTypes::ExtractStyle::callStaticMethod<jboolean>("waitForExtraction", stylePath,
+                                                              jlong(timeout))) {
+        qWarning("The Android style is not extracted yet, using the default style until it is.");
+        return QJsonObject();
+    }
+
+    const QJsonObject core = loadStyleFile(corePath + "style.json"_L1);
+    if (core.isEmpty())
+        return QJsonObject();
+
+    QJsonObject drawables = loadStyleFile(stylePath + "drawables.json"_L1);
+    const double density = drawables.take("density"_L1).toDouble(1.0);
+    return resolveDimensions(mergeStyleObjects(core, drawables), density);
+}
+
+bool AndroidStyle::loadStyleSection(const QString &section, QJsonObject *object)
+{
+    // ExtractStyle extracts the section in the background on first use and caches it
+    // on disk, handleStyleSectionExtracted() is called once it is ready
+    const QJniObject fileName = QtJniTypes::ExtractStyle::callStaticMethod<jstring>(
+                                    "extractSection", section);
+    if (!fileName.isValid()) {
+        // The section can't be extracted
+        *object = QJsonObject();
+        return true;
+    }
+
+    const QString path = fileName.toString();
+    if (path.isEmpty())
+        return false;
+
+    const QJsonObject file = loadStyleFile(path);
+    *object = resolveDimensions(file.value(section).toObject(),
+                                file.value("density"_L1).toDouble(1.0));
+    return true;
+}
+
+bool AndroidStyle::loadStyleImage(const QString &path, QByteArray *data)
+{
+    // The images extracted in this session are handed over in direct buffers until
+    // their files are written. ExtractStyle drops the buffer then, so copy it while
+    // the reference keeps it alive.
+    const QtJniTypes::ByteBuffer buffer =
+            QtJniTypes::ExtractStyle::callStaticMethod<QtJniTypes::ByteBuffer>("imageBuffer", path);
+    if (!buffer.isValid())
+        return false;
+
+    QJniEnvironment env;
+    const char *address = static_cast<const char *>(env->GetDirectBufferAddress(buffer.object()));
+    const jlong size = env->GetDirectBufferCapacity(buffer.object());
+    if (!address || size <= 0)
+        return false;
+
+    *data = QByteArray(address, size);
+    return true;
+}
+
 static void loadAndroidStyle(QPalette *defaultPalette, std::shared_ptr<AndroidStyle> &style)
 {
     double pixelDensity = QHighDpiScaling::isActive() ? QtAndroid::pixelDensity() : 1.0;
@@ -203,6 +336,8 @@ static void loadAndroidStyle(QPalette *defaultPalette, std::shared_ptr<AndroidSt
         style->m_fonts.insert(QPlatformTheme::FixedFont, font);
     }
 
+    const QJsonObject colorStateLists = style->m_styleData.value("colorStateLists"_L1).toObject();
+
     for (QJsonObject::const_iterator objectIterator = style->m_styleData.constBegin();
          objectIterator != style->m_styleData.constEnd();
          ++objectIterator) {
@@ -280,11 +415,11 @@ static void loadAndroidStyle(QPalette *defaultPalette, std::shared_ptr<AndroidSt
 
             attributeIterator = item.find("TextAppearance_textColor"_L1);
             if (attributeIterator != item.constEnd())
-                setPaletteColor(attributeIterator.value().toObject().toVariantMap(), palette, QPalette::WindowText);
+                setPaletteColor(colorStateList(attributeIterator.value(), colorStateLists), palette, QPalette::WindowText);
 
             attributeIterator = item.find("TextAppearance_textColorLink"_L1);
             if (attributeIterator != item.constEnd())
-                setPaletteColor(attributeIterator.value().toObject().toVariantMap(), palette, QPalette::Link);
+                setPaletteColor(colorStateList(attributeIterator.value(), colorStateLists), palette, QPalette::Link);
 
             attributeIterator = item.find("TextAppearance_textColorHighlight"_L1);
             if (attributeIterator != item.constEnd())
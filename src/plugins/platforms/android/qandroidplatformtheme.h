@@ -19,6 +19,8 @@ QT_BEGIN_NAMESPACE
 struct AndroidStyle
 {
     static QJsonObject loadStyleData();
+    static bool loadStyleSection(const QString &section, QJsonObject *object);
+    static bool loadStyleImage(const QString &path, QByteArray *data);
     QJsonObject m_styleData;
     QPalette m_standardPalette;
     QHash<int, QPalette> m_palettes;
@@ -14,6 +14,7 @@
 #include <QJsonDocument>
 #include <QJsonObject>
 #include <QDebug>
+#include <QtEndian>
 
 #include <QGuiApplication>
 #include <qpa/qplatformnativeinterface.h>
@@ -24,6 +25,63 @@ QT_BEGIN_NAMESPACE
 namespace {
     const quint32 NO_COLOR = 1;
     const quint32 TRANSPARENT_COLOR = 0;
+
+    // Keep in sync with StyleImageEncoder.java
+    const quint32 RAW_IMAGE_MAGIC = 0x31525351; // "QSR1"
+    const qint64 RAW_IMAGE_HEADER_SIZE = 5 * sizeof(quint32);
+
+    typedef bool (*StyleImageLoader)(const QString &path, QByteArray *data);
+    StyleImageLoader styleImageLoader = nullptr;
+
+    QPixmap rawStylePixmap(const uchar *data, qint64 size, const QString &filePath)
+    {
+        if (size < RAW_IMAGE_HEADER_SIZE)
+            return QPixmap();
+
+        const quint32 *header = reinterpret_cast<const quint32 *>(data);
+        const quint32 magic = qFromLittleEndian(header[0]);
+        const int width = qFromLittleEndian(header[1]);
+        const int height = qFromLittleEndian(header[2]);
+        const int bytesPerLine = qFromLittleEndian(header[3]);
+        const bool premultiplied = qFromLittleEndian(header[4]);
+        if (magic != RAW_IMAGE_MAGIC || width <= 0 || height <= 0 || bytesPerLine < width * 4
+            || size < RAW_IMAGE_HEADER_SIZE + qint64(bytesPerLine) * height) {
+            qWarning() << "Invalid raw style image" << filePath;
+            return QPixmap();
+        }
+
+        const QImage image(data + RAW_IMAGE_HEADER_SIZE, width, height, bytesPerLine,
+                           premultiplied ? QImage::Format_RGBA8888_Premultiplied
+                                         : QImage::Format_RGBA8888);
+        // fromImage() copies the pixels, so the data can go away afterwards
+        return QPixmap::fromImage(image);
+    }
+
+    QPixmap loadStylePixmap(const QString &filePath)
+    {
+        // The images extracted in this session are still in memory until
+        // their files are written
+        QByteArray pixels;
+        if (styleImageLoader && styleImageLoader(filePath, &pixels)) {
+            return rawStylePixmap(reinterpret_cast<const uchar *>(pixels.constData()),
+                                  pixels.size(), filePath);
+        }
+
+        if (!filePath.endsWith(QLatin1String(".raw")))
+            return QPixmap(filePath);
+
+        // Raw images are uncompressed RGBA pixels behind a small header,
+        // map them instead of going through an image decoder
+        QFile file(filePath);
+        if (!file.open(QIODevice::ReadOnly))
+            return QPixmap();
+
+        const uchar *data = file.map(0, file.size());
+        if (!data)
+            return QPixmap();
+
+        return rawStylePixmap(data, file.size(), filePath);
+    }
 }
 
 QAndroidStyle::QAndroidStyle()
@@ -31,6 +89,16 @@ QAndroidStyle::QAndroidStyle()
 {
     QPixmapCache::clear();
     checkBoxControl = NULL;
+    m_styleSectionLoader = nullptr;
+    m_pendingStyleData = nullptr;
+    QPlatformNativeInterface *nativeInterface = QGuiApplication::platformNativeInterface();
+    styleImageLoader = reinterpret_cast<StyleImageLoader>(
+                nativeInterface->nativeResourceFunctionForIntegration("AndroidStyleImage"));
+    loadStyle();
+}
+
+void QAndroidStyle::loadStyle()
+{
     QPlatformNativeInterface *nativeInterface = QGuiApplication::platformNativeInterface();
     QPalette *standardPalette = reinterpret_cast<QPalette *>(nativeInterface->nativeResourceForIntegration("AndroidStandardPalette"));
     if (standardPalette)
@@ -43,10 +111,24 @@ QAndroidStyle::QAndroidStyle()
         qwidgetsFonts->clear(); // free the memory
     }
 
+    // In on demand mode the controls are created from their own style section
+    // the first time they are used, see control()
+    m_styleSectionLoader = reinterpret_cast<StyleSectionLoader>(
+                nativeInterface->nativeResourceFunctionForIntegration("AndroidStyleSection"));
+    if (m_styleSectionLoader)
+        return;
+
     QJsonObject *object = reinterpret_cast<QJsonObject *>(nativeInterface->nativeResourceForIntegration("AndroidStyleData"));
     if (!object)
         return;
 
+    // The style was not extracted in time, the platform theme reloads it once the
+    // extraction is finished and sends a theme change, see polish()
+    if (object->isEmpty()) {
+        m_pendingStyleData = object;
+        return;
+    }
+
     for (QJsonObject::const_iterator objectIterator = object->constBegin();
          objectIterator != object->constEnd();
          ++objectIterator) {
@@ -62,36 +144,7 @@ QAndroidStyle::QAndroidStyle()
         if (QC_UnknownType == itemType)
             continue;
 
-        switch (itemType) {
-        case QC_Checkbox:
-            checkBoxControl = new AndroidCompoundButtonControl(item.toVariantMap(), itemType);
-            m_androidControlsHash[int(itemType)] = checkBoxControl;
-            break;
-        case QC_RadioButton:
-            m_androidControlsHash[int(itemType)] = new AndroidCompoundButtonControl(item.toVariantMap(),
-                                                                                    itemType);
-            break;
-
-        case QC_ProgressBar:
-            m_androidControlsHash[int(itemType)] = new AndroidProgressBarControl(item.toVariantMap(),
-                                                                                 itemType);
-            break;
-
-        case QC_Slider:
-            m_androidControlsHash[int(itemType)] = new AndroidSeekBarControl(item.toVariantMap(),
-                                                                             itemType);
-            break;
-
-        case QC_Combobox:
-            m_androidControlsHash[int(itemType)] = new AndroidSpinnerControl(item.toVariantMap(),
-                                                                             itemType);
-            break;
-
-        default:
-            m_androidControlsHash[int(itemType)] = new AndroidControl(item.toVariantMap(),
-                                                                      itemType);
-            break;
-        }
+        m_androidControlsHash[int(itemType)] = createControl(item.toVariantMap(), itemType);
     }
     *object = QJsonObject(); // free memory
 }
@@ -125,6 +178,89 @@ QAndroidStyle::ItemType QAndroidStyle::qtControl(const QString &android)
     return QC_UnknownType;
 }
 
+QString QAndroidStyle::styleSection(ItemType itemType)
+{
+    switch (itemType) {
+    case QC_Button:
+        return QLatin1String("buttonStyle");
+    case QC_EditText:
+        return QLatin1String("editTextStyle");
+    case QC_RadioButton:
+        return QLatin1String("radioButtonStyle");
+    case QC_Checkbox:
+        return QLatin1String("checkboxStyle");
+    case QC_View:
+        return QLatin1String("textViewStyle");
+    case QC_Switch:
+        return QLatin1String("buttonStyleToggle");
+    case QC_Combobox:
+        return QLatin1String("spinnerStyle");
+    case QC_ProgressBar:
+        return QLatin1String("progressBarStyleHorizontal");
+    case QC_Slider:
+        return QLatin1String("seekBarStyle");
+    default:
+        return QString();
+    }
+}
+
+QAndroidStyle::AndroidControl *QAndroidStyle::createControl(const QVariantMap &control,
+                                                             ItemType itemType) const
+{
+    switch (itemType) {
+    case QC_Checkbox:
+        checkBoxControl = new AndroidCompoundButtonControl(control, itemType);
+        return checkBoxControl;
+    case QC_RadioButton:
+        return new AndroidCompoundButtonControl(control, itemType);
+    case QC_ProgressBar:
+        return new AndroidProgressBarControl(control, itemType);
+    case QC_Slider:
+        return new AndroidSeekBarControl(control, itemType);
+    case QC_Combobox:
+        return new AndroidSpinnerControl(control, itemType);
+    default:
+        return new AndroidControl(control, itemType);
+    }
+}
+
+QAndroidStyle::AndroidControl *QAndroidStyle::control(ItemType itemType) const
+{
+    if (itemType == QC_UnknownType)
+        return nullptr;
+
+    AndroidControlsHash::const_iterator it = m_androidControlsHash.constFind(int(itemType));
+    if (it != m_androidControlsHash.constEnd())
+        return it.value();
+
+    if (!m_styleSectionLoader)
+        return nullptr;
+
+    const QString section = styleSection(itemType);
+    if (section.isEmpty())
+        return nullptr;
+
+    // The section is extracted in the background, until then the control is drawn
+    // by the base style. A theme change is sent once the section is ready.
+    QJsonObject item;
+    if (!m_styleSectionLoader(section, &item))
+        return nullptr;
+
+    // Sections which fail to load are remembered as null controls,
+    // so they are not requested again
+    AndroidControl *androidControl = nullptr;
+    if (!item.isEmpty())
+        androidControl = createControl(item.toVariantMap(), itemType);
+    m_androidControlsHash.insert(int(itemType), androidControl);
+    return androidControl;
+}
+
+QAndroidStyle::AndroidCompoundButtonControl *QAndroidStyle::checkBox() const
+{
+    control(QC_Checkbox);
+    return checkBoxControl;
+}
+
 QAndroidStyle::ItemType QAndroidStyle::qtControl(QStyle::ComplexControl control)
 {
     switch (control) {
@@ -253,16 +389,14 @@ void QAndroidStyle::drawPrimitive(PrimitiveElement pe,
                                   const QWidget *w) const
 {
     const ItemType itemType = qtControl(pe);
-    AndroidControlsHash::const_iterator it = itemType != QC_UnknownType
-                                             ? m_androidControlsHash.find(itemType)
-                                             : m_androidControlsHash.end();
-    if (it != m_androidControlsHash.end()) {
+    AndroidControl *androidControl = control(itemType);
+    if (androidControl) {
         if (itemType != QC_EditText) {
-            it.value()->drawControl(opt, p, w);
+            androidControl->drawControl(opt, p, w);
         } else {
             QStyleOption copy(*opt);
             copy.state &= ~QStyle::State_Sunken;
-            it.value()->drawControl(&copy, p, w);
+            androidControl->drawControl(&copy, p, w);
         }
     } else if (pe == PE_FrameGroupBox) {
         if (const QStyleOptionFrame *frame = qstyleoption_cast<const QStyleOptionFrame *>(opt)) {
@@ -290,12 +424,8 @@ void QAndroidStyle::drawControl(QStyle::ControlElement element,
                                 const QWidget *w) const
 {
     const ItemType itemType = qtControl(element);
-    AndroidControlsHash::const_iterator it = itemType != QC_UnknownType
-                                             ? m_androidControlsHash.find(itemType)
-                                             : m_androidControlsHash.end();
-    if (it != m_androidControlsHash.end()) {
-        AndroidControl *androidControl = it.value();
-
+    AndroidControl *androidControl = control(itemType);
+    if (androidControl) {
         if (element != QStyle::CE_CheckBoxLabel
                 && element != QStyle::CE_PushButtonLabel
                 && element != QStyle::CE_RadioButtonLabel
@@ -352,11 +482,9 @@ QRect QAndroidStyle::subElementRect(SubElement subElement,
                                     const QWidget *widget) const
 {
     const ItemType itemType = qtControl(subElement);
-    AndroidControlsHash::const_iterator it = itemType != QC_UnknownType
-                                             ? m_androidControlsHash.find(itemType)
-                                             : m_androidControlsHash.end();
-    if (it != m_androidControlsHash.end())
-        return it.value()->subElementRect(subElement, option, widget);
+    AndroidControl *androidControl = control(itemType);
+    if (androidControl)
+        return androidControl->subElementRect(subElement, option, widget);
     return QFusionStyle::subElementRect(subElement, option, widget);
 }
 
@@ -366,11 +494,9 @@ void QAndroidStyle::drawComplexControl(ComplexControl cc,
                                        const QWidget *widget) const
 {
     const ItemType itemType = qtControl(cc);
-    AndroidControlsHash::const_iterator it = itemType != QC_UnknownType
-                                             ? m_androidControlsHash.find(itemType)
-                                             : m_androidControlsHash.end();
-    if (it != m_androidControlsHash.end()) {
-        it.value()->drawControl(opt, p, widget);
+    AndroidControl *androidControl = control(itemType);
+    if (androidControl) {
+        androidControl->drawControl(opt, p, widget);
         return;
     }
     if (cc == CC_GroupBox) {
@@ -431,7 +557,10 @@ void QAndroidStyle::drawComplexControl(ComplexControl cc,
                 QStyleOptionButton box;
                 box.QStyleOption::operator=(*groupBox);
                 box.rect = checkBoxRect;
-                checkBoxControl->drawControl(&box, p, widget);
+                if (AndroidCompoundButtonControl *indicator = checkBox())
+                    indicator->drawControl(&box, p, widget);
+                else
+                    drawPrimitive(PE_IndicatorCheckBox, &box, p, widget);
             }
         }
         return;
@@ -445,18 +574,16 @@ QStyle::SubControl QAndroidStyle::hitTestComplexControl(ComplexControl cc,
                                                         const QWidget *widget) const
 {
     const ItemType itemType = qtControl(cc);
-    AndroidControlsHash::const_iterator it = itemType != QC_UnknownType
-                                             ? m_androidControlsHash.find(itemType)
-                                             : m_androidControlsHash.end();
-    if (it != m_androidControlsHash.end()) {
+    AndroidControl *androidControl = control(itemType);
+    if (androidControl) {
         switch (cc) {
         case CC_Slider:
             if (const QStyleOptionSlider *slider = qstyleoption_cast<const QStyleOptionSlider *>(opt)) {
-                QRect r = it.value()->subControlRect(slider, SC_SliderHandle, widget);
+                QRect r = androidControl->subControlRect(slider, SC_SliderHandle, widget);
                 if (r.isValid() && r.contains(pt)) {
                     return SC_SliderHandle;
                 } else {
-                    r = it.value()->subControlRect(slider, SC_SliderGroove, widget);
+                    r = androidControl->subControlRect(slider, SC_SliderGroove, widget);
                     if (r.isValid() && r.contains(pt))
                         return SC_SliderGroove;
                 }
@@ -475,19 +602,16 @@ QRect QAndroidStyle::subControlRect(ComplexControl cc,
                                     const QWidget *widget) const
 {
     const ItemType itemType = qtControl(cc);
-    AndroidControlsHash::const_iterator it = itemType != QC_UnknownType
-                                             ? m_androidControlsHash.find(itemType)
-                                             : m_androidControlsHash.end();
-    if (it != m_androidControlsHash.end())
-        return it.value()->subControlRect(opt, sc, widget);
+    AndroidControl *androidControl = control(itemType);
+    if (androidControl)
+        return androidControl->subControlRect(opt, sc, widget);
     QRect rect = opt->rect;
     switch (cc) {
         case CC_GroupBox: {
             if (const QStyleOptionGroupBox *groupBox = qstyleoption_cast<const QStyleOptionGroupBox *>(opt)) {
                 QSize textSize = opt->fontMetrics.boundingRect(groupBox->text).size() + QSize(2, 2);
-                QSize checkBoxSize = checkBoxControl->size(opt);
-                int indicatorWidth = checkBoxSize.width();
-                int indicatorHeight = checkBoxSize.height();
+                int indicatorWidth = pixelMetric(PM_IndicatorWidth, opt);
+                int indicatorHeight = pixelMetric(PM_IndicatorHeight, opt);
                 QRect checkBoxRect;
                 if (opt->subControls & QStyle::SC_GroupBoxCheckBox) {
                     checkBoxRect.setWidth(indicatorWidth);
@@ -542,9 +666,13 @@ int QAndroidStyle::pixelMetric(PixelMetric metric, const QStyleOption *option,
     case PM_ScrollBarExtent:
         return 0;
     case PM_IndicatorWidth:
-        return checkBoxControl->size(option).width();
+        if (AndroidCompoundButtonControl *indicator = checkBox())
+            return indicator->size(option).width();
+        return QFusionStyle::pixelMetric(metric, option, widget);
     case PM_IndicatorHeight:
-        return checkBoxControl->size(option).height();
+        if (AndroidCompoundButtonControl *indicator = checkBox())
+            return indicator->size(option).height();
+        return QFusionStyle::pixelMetric(metric, option, widget);
     default:
         return QFusionStyle::pixelMetric(metric, option, widget);
     }
@@ -561,7 +689,7 @@ QSize QAndroidStyle::sizeFromContents(ContentsType ct,
         if (const QStyleOptionHeader *hdr = qstyleoption_cast<const QStyleOptionHeader *>(opt)) {
             bool nullIcon = hdr->icon.isNull();
             int margin = pixelMetric(QStyle::PM_HeaderMargin, hdr, w);
-            int iconSize = nullIcon ? 0 : checkBoxControl->size(opt).width();
+            int iconSize = nullIcon ? 0 : pixelMetric(PM_IndicatorWidth, opt, w);
             QSize txt;
 /*
  * These next 4 lines are a bad hack to fix a bug in case a QStyleSheet is applied at QApplication level.
@@ -587,17 +715,14 @@ QSize QAndroidStyle::sizeFromContents(ContentsType ct,
         }
     }
     const ItemType itemType = qtControl(ct);
-    AndroidControlsHash::const_iterator it = itemType != QC_UnknownType
-                                             ? m_androidControlsHash.find(itemType)
-                                             : m_androidControlsHash.end();
-    if (it != m_androidControlsHash.end())
-        return it.value()->sizeFromContents(opt, sz, w);
+    AndroidControl *androidControl = control(itemType);
+    if (androidControl)
+        return androidControl->sizeFromContents(opt, sz, w);
     if (ct == CT_GroupBox) {
         if (const QStyleOptionGroupBox *groupBox = qstyleoption_cast<const QStyleOptionGroupBox *>(opt)) {
             QSize textSize = opt->fontMetrics.boundingRect(groupBox->text).size() + QSize(2, 2);
-            QSize checkBoxSize = checkBoxControl->size(opt);
-            int indicatorWidth = checkBoxSize.width();
-            int indicatorHeight = checkBoxSize.height();
+            int indicatorWidth = pixelMetric(PM_IndicatorWidth, opt);
+            int indicatorHeight = pixelMetric(PM_IndicatorHeight, opt);
             QRect checkBoxRect;
             if (groupBox->subControls & QStyle::SC_GroupBoxCheckBox) {
                 checkBoxRect.setWidth(indicatorWidth);
@@ -656,6 +781,11 @@ QPalette QAndroidStyle::standardPalette() const
 
 void QAndroidStyle::polish(QWidget *widget)
 {
+    if (m_pendingStyleData && !m_pendingStyleData->isEmpty()) {
+        m_pendingStyleData = nullptr;
+        QPixmapCache::clear();
+        loadStyle();
+    }
     widget->setAttribute(Qt::WA_StyledBackground, true);
 }
 
@@ -755,7 +885,7 @@ void QAndroidStyle::AndroidImageDrawable::draw(QPainter *painter, const QStyleOp
 
     QPixmap pm;
     if (!QPixmapCache::find(m_hashKey, &pm)) {
-        pm.load(m_filePath);
+        pm = loadStylePixmap(m_filePath);
         QPixmapCache::insert(m_hashKey, pm);
     }
 
@@ -826,7 +956,7 @@ void QAndroidStyle::Android9PatchDrawable::draw(QPainter *painter, const QStyleO
 
     QPixmap pixmap;
     if (!QPixmapCache::find(m_hashKey, &pixmap)) {
-        pixmap.load(m_filePath);
+        pixmap = loadStylePixmap(m_filePath);
         QPixmapCache::insert(m_hashKey, pixmap);
     }
 
@@ -24,6 +24,8 @@
 
 QT_BEGIN_NAMESPACE
 
+class QJsonObject;
+
 class Q_WIDGETS_EXPORT QAndroidStyle : public QFusionStyle
 {
     Q_OBJECT
@@ -342,12 +344,22 @@ private:
     static ItemType qtControl(QStyle::PrimitiveElement primitiveElement);
     static ItemType qtControl(QStyle::SubElement subElement);
     static ItemType qtControl(const QString &android);
+    static QString styleSection(ItemType itemType);
+
+    void loadStyle();
+    AndroidControl *createControl(const QVariantMap &control, ItemType itemType) const;
+    AndroidControl *control(ItemType itemType) const;
+    AndroidCompoundButtonControl *checkBox() const;
 
 private:
     typedef QHash<int, AndroidControl *> AndroidControlsHash;
-    AndroidControlsHash m_androidControlsHash;
+    // Returns false while the section is still being extracted
+    typedef bool (*StyleSectionLoader)(const QString &section, QJsonObject *object);
+    mutable AndroidControlsHash m_androidControlsHash;
     QPalette m_standardPalette;
-    AndroidCompoundButtonControl *checkBoxControl;
+    mutable AndroidCompoundButtonControl *checkBoxControl;
+    StyleSectionLoader m_styleSectionLoader;
+    QJsonObject *m_pendingStyleData;
 };
 
 QT_END_NAMESPACE
@@ -0,0 +1,214 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR GPL-3.0-only WITH Qt-GPL-exception-1.0
+
+#include <jni.h>
+
+#include <QTest>
+#include <QtCore/qendian.h>
+#include <QtCore/qjnienvironment.h>
+#include <QtCore/qjniobject.h>
+
+#include <algorithm>
+
+using namespace Qt::StringLiterals;
+
+static const char extractStyleClass[] = "org/qtproject/qt/android/ExtractStyle";
+
+class tst_AndroidExtractStyle : public QObject
+{
+Q_OBJECT
+private slots:
+    void fieldCache();
+    void methodCache();
+    void attributeIndex();
+    void imageEncoderRoundTrip_data();
+    void imageEncoderRoundTrip();
+};
+
+static QJniObject declaredField(jclass clazz, const QString &name)
+{
+    return QJniObject::callStaticObjectMethod(
+            extractStyleClass, "getDeclaredField",
+            "(Ljava/lang/Class;Ljava/lang/String;)Ljava/lang/reflect/Field;",
+            clazz, QJniObject::fromString(name).object<jstring>());
+}
+
+static QJniObject method(jclass clazz, const QString &name)
+{
+    QJniEnvironment env;
+    jclass classClass = env.findClass("java/lang/Class");
+    jobjectArray parameterTypes = env->NewObjectArray(0, classClass, nullptr);
+    QJniObject method = QJniObject::callStaticObjectMethod(
+            extractStyleClass, "getMethod",
+            "(Ljava/lang/Class;Ljava/lang/String;[Ljava/lang/Class;)Ljava/lang/reflect/Method;",
+            clazz, QJniObject::fromString(name).object<jstring>(), parameterTypes);
+    env->DeleteLocalRef(parameterTypes);
+    return method;
+}
+
+void tst_AndroidExtractStyle::fieldCache()
+{
+    QJniEnvironment env;
+    jclass clazz = env.findClass(extractStyleClass);
+    QVERIFY(clazz);
+
+    // The second lookup returns the field of the first one
+    QJniObject field = declaredField(clazz, u"m_minimal"_s);
+    QVERIFY(field.isValid());
+    QVERIFY(!env.checkAndClearExceptions());
+    QJniObject cachedField = declaredField(clazz, u"m_minimal"_s);
+    QVERIFY(!env.checkAndClearExceptions());
+    QVERIFY(env->IsSameObject(field.object(), cachedField.object()));
+
+    // A missing field is null every time, without an exception
+    QVERIFY(!declaredField(clazz, u"noSuchField"_s).isValid());
+    QVERIFY(!env.checkAndClearExceptions());
+    QVERIFY(!declaredField(clazz, u"noSuchField"_s).isValid());
+    QVERIFY(!env.checkAndClearExceptions());
+}
+
+void tst_AndroidExtractStyle::methodCache()
+{
+    QJniEnvironment env;
+    jclass objectClass = env.findClass("java/lang/Object");
+    QVERIFY(objectClass);
+
+    // The second lookup returns the method of the first one
+    QJniObject hashCode = method(objectClass, u"hashCode"_s);
+    QVERIFY(hashCode.isValid());
+    QVERIFY(!env.checkAndClearExceptions());
+    QJniObject cachedHashCode = method(objectClass, u"hashCode"_s);
+    QVERIFY(!env.checkAndClearExceptions());
+    QVERIFY(env->IsSameObject(hashCode.object(), cachedHashCode.object()));
+
+    // A missing method throws every time, like Class.getMethod()
+    QVERIFY(!method(objectClass, u"noSuchMethod"_s).isValid());
+    QVERIFY(env.checkAndClearExceptions(QJniEnvironment::OutputMode::Silent));
+    QVERIFY(!method(objectClass, u"noSuchMethod"_s).isValid());
+    QVERIFY(env.checkAndClearExceptions(QJniEnvironment::OutputMode::Silent));
+}
+
+void tst_AndroidExtractStyle::attributeIndex()
+{
+    // Unsorted, like the attribute lists of ExtractStyle
+    const QList<jint> attributes = { 0x01010098, 0x01010095, 0x010100d4, 0x01010097,
+                                     0x01010034, 0x01010096, 0x010100af };
+    QJniEnvironment env;
+    jintArray array = env->NewIntArray(attributes.size());
+    env->SetIntArrayRegion(array, 0, attributes.size(), attributes.constData());
+    QJniObject index("org/qtproject/qt/android/ExtractStyle$AttributeIndex", "([I)V", array);
+    env->DeleteLocalRef(array);
+    QVERIFY(index.isValid());
+
+    // obtainStyledAttributes() needs the attributes sorted
+    QList<jint> sorted = attributes;
+    std::sort(sorted.begin(), sorted.end());
+    QJniObject sortedArray = index.getObjectField("attributes", "[I");
+    QCOMPARE(env->GetArrayLength(sortedArray.object<jintArray>()), sorted.size());
+    QList<jint> indexAttributes(sorted.size());
+    env->GetIntArrayRegion(sortedArray.object<jintArray>(), 0, indexAttributes.size(),
+                           indexAttributes.data());
+    QCOMPARE(indexAttributes, sorted);
+
+    // The same indices as the linear lookup in the sorted list it replaces
+    for (jint attribute : attributes) {
+        const int expected = std::find(sorted.cbegin(), sorted.cend(), attribute) - sorted.cbegin();
+        QCOMPARE(index.callMethod<jint>("indexOf", "(I)I", attribute), expected);
+    }
+    QCOMPARE(index.callMethod<jint>("indexOf", "(I)I", 0x01010000), -1);
+    QCOMPARE(index.callMethod<jint>("indexOf", "(I)I", 0x7fffffff), -1);
+}
+
+void tst_AndroidExtractStyle::imageEncoderRoundTrip_data()
+{
+    QTest::addColumn<QString>("format");
+
+    QTest::newRow("png") << u"png"_s;
+    QTest::newRow("png_fast") << u"png_fast"_s;
+    QTest::newRow("webp") << u"webp"_s;
+    QTest::newRow("raw") << u"raw"_s;
+}
+
+void tst_AndroidExtractStyle::imageEncoderRoundTrip()
+{
+    QFETCH(QString, format);
+
+    // Opaque and fully transparent pixels, which premultiplication keeps as they are,
+    // with an odd width
+    const int width = 7;
+    const int height = 5;
+    QList<jint> colors(width * height);
+    for (int i = 0; i < colors.size(); ++i)
+        colors[i] = i % 5 == 0 ? 0 : jint(0xff000000 | ((i * 0x0b3d71) & 0xffffff));
+
+    QJniEnvironment env;
+    jintArray colorArray = env->NewIntArray(colors.size());
+    env->SetIntArrayRegion(colorArray, 0, colors.size(), colors.constData());
+    QJniObject config = QJniObject::getStaticObjectField("android/graphics/Bitmap$Config",
+                                                         "ARGB_8888",
+                                                         "Landroid/graphics/Bitmap$Config;");
+    QJniObject bitmap = QJniObject::callStaticObjectMethod(
+            "android/graphics/Bitmap", "createBitmap",
+            "([IIILandroid/graphics/Bitmap$Config;)Landroid/graphics/Bitmap;",
+            colorArray, width, height, config.object());
+    env->DeleteLocalRef(colorArray);
+    QVERIFY(bitmap.isValid());
+
+    QJniObject encoder("org/qtproject/qt/android/StyleImageEncoder", "(Ljava/lang/String;)V",
+                       QJniObject::fromString(format).object<jstring>());
+    QJniObject out("java/io/ByteArrayOutputStream");
+    encoder.callMethod<void>("encode", "(Landroid/graphics/Bitmap;Ljava/io/OutputStream;)V",
+                             bitmap.object(), out.object());
+    QVERIFY(!env.checkAndClearExceptions());
+
+    QJniObject bytes = out.callObjectMethod("toByteArray", "()[B");
+    const jsize size = env->GetArrayLength(bytes.object<jbyteArray>());
+    QByteArray data(size, Qt::Uninitialized);
+    env->GetByteArrayRegion(bytes.object<jbyteArray>(), 0, size,
+                            reinterpret_cast<jbyte *>(data.data()));
+
+    const QString suffix = encoder.callObjectMethod("fileSuffix", "()Ljava/lang/String;").toString();
+    if (suffix == ".raw"_L1) {
+        // Five little endian ints, then the premultiplied RGBA pixels
+        QCOMPARE(data.size(), 5 * 4 + width * height * 4);
+        const uchar *header = reinterpret_cast<const uchar *>(data.constData());
+        QCOMPARE(qFromLittleEndian<quint32>(header), 0x31525351u);
+        QCOMPARE(qFromLittleEndian<qint32>(header + 4), width);
+        QCOMPARE(qFromLittleEndian<qint32>(header + 8), height);
+        QCOMPARE(qFromLittleEndian<qint32>(header + 12), width * 4);
+        QCOMPARE(qFromLittleEndian<qint32>(header + 16), 1);
+        const uchar *pixels = header + 5 * 4;
+        for (int i = 0; i < colors.size(); ++i) {
+            const quint32 color = quint32(colors.at(i));
+            const uchar *pixel = pixels + i * 4;
+            QCOMPARE(pixel[0], uchar(color >> 16));
+            QCOMPARE(pixel[1], uchar(color >> 8));
+            QCOMPARE(pixel[2], uchar(color));
+            QCOMPARE(pixel[3], uchar(color >> 24));
+        }
+        return;
+    }
+
+    if (suffix == ".webp"_L1)
+        QVERIFY(data.startsWith("RIFF"));
+    else
+        QVERIFY(data.startsWith("\x89PNG"));
+
+    QJniObject decoded = QJniObject::callStaticObjectMethod(
+            "android/graphics/BitmapFactory", "decodeByteArray",
+            "([BII)Landroid/graphics/Bitmap;", bytes.object<jbyteArray>(), 0, size);
+    QVERIFY(decoded.isValid());
+    QCOMPARE(decoded.callMethod<jint>("getWidth"), width);
+    QCOMPARE(decoded.callMethod<jint>("getHeight"), height);
+
+    jintArray decodedArray = env->NewIntArray(colors.size());
+    decoded.callMethod<void>("getPixels", "([IIIIIII)V", decodedArray, 0, width, 0, 0, width,
+                             height);
+    QList<jint> decodedColors(colors.size());
+    env->GetIntArrayRegion(decodedArray, 0, decodedColors.size(), decodedColors.data());
+    env->DeleteLocalRef(decodedArray);
+    QCOMPARE(decodedColors, colors);
+}
+
+QTEST_MAIN(tst_AndroidExtractStyle)
+#include "tst_android_extractstyle.moc"
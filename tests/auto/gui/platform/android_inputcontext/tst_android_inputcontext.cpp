@@ -0,0 +1,127 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR GPL-3.0-only WITH Qt-GPL-exception-1.0
+
+#include <QTest>
+#include <QGuiApplication>
+#include <QInputMethod>
+#include <QInputMethodQueryEvent>
+#include <QWindow>
+#include <QtCore/qjniobject.h>
+
+static const char textMirrorClass[] = "org/qtproject/qt/android/QtInputTextMirror";
+
+// An editor with a selection, which answers the queries of the input context
+class TextWindow : public QWindow
+{
+    Q_OBJECT
+public:
+    QString text;
+    int cursor = 0;
+    int anchor = 0;
+
+    Q_INVOKABLE QVariant inputMethodQuery(Qt::InputMethodQuery query,
+                                          const QVariant &argument) const
+    {
+        switch (query) {
+        case Qt::ImEnabled:
+            return true;
+        case Qt::ImHints:
+            return int(Qt::ImhNone);
+        case Qt::ImSurroundingText:
+            return text;
+        case Qt::ImCursorPosition:
+            return cursor;
+        case Qt::ImAnchorPosition:
+            return anchor;
+        case Qt::ImCurrentSelection:
+            return text.mid(qMin(cursor, anchor), qAbs(cursor - anchor));
+        case Qt::ImTextBeforeCursor:
+            return argument.isValid() ? text.left(cursor).right(argument.toInt())
+                                      : text.left(cursor);
+        case Qt::ImTextAfterCursor:
+            return argument.isValid() ? text.mid(cursor, argument.toInt()) : text.mid(cursor);
+        default:
+            return QVariant();
+        }
+    }
+
+protected:
+    bool event(QEvent *event) override
+    {
+        if (event->type() != QEvent::InputMethodQuery)
+            return QWindow::event(event);
+
+        auto *queryEvent = static_cast<QInputMethodQueryEvent *>(event);
+        for (uint bit = 0; bit < 32; ++bit) {
+            const auto query = Qt::InputMethodQuery(1u << bit);
+            if (queryEvent->queries() & query)
+                queryEvent->setValue(query, inputMethodQuery(query, QVariant()));
+        }
+        queryEvent->accept();
+        return true;
+    }
+};
+
+class tst_AndroidInputContext : public QObject
+{
+Q_OBJECT
+private slots:
+    void textMirrorWithSelection_data();
+    void textMirrorWithSelection();
+};
+
+void tst_AndroidInputContext::textMirrorWithSelection_data()
+{
+    QTest::addColumn<bool>("cursorAtEnd");
+
+    QTest::newRow("cursor at the end") << true;
+    QTest::newRow("cursor at the start") << false;
+}
+
+void tst_AndroidInputContext::textMirrorWithSelection()
+{
+    QFETCH(bool, cursorAtEnd);
+
+    // The selection is longer than the text which the mirror keeps on each side of it,
+    // and the text goes on past that on both sides
+    const int before = 2000;
+    const int selection = 1500;
+    TextWindow window;
+    window.text = QString(before, u'a') + QString(selection, u's') + QString(2000, u'b');
+    window.cursor = cursorAtEnd ? before + selection : before;
+    window.anchor = cursorAtEnd ? before : before + selection;
+    window.show();
+    window.requestActivate();
+    QVERIFY(QTest::qWaitForWindowActive(&window));
+    QCOMPARE(QGuiApplication::focusObject(), &window);
+
+    QGuiApplication::inputMethod()->update(Qt::ImQueryAll);
+
+    QCOMPARE(QJniObject::callStaticObjectMethod(textMirrorClass, "getSelectedText",
+                                                "()Ljava/lang/String;").toString(),
+             QString(selection, u's'));
+    QCOMPARE(QJniObject::callStaticObjectMethod(textMirrorClass, "getTextBeforeCursor",
+                                                "(I)Ljava/lang/String;", jint(10)).toString(),
+             QString(10, u'a'));
+    QCOMPARE(QJniObject::callStaticObjectMethod(textMirrorClass, "getTextAfterCursor",
+                                                "(I)Ljava/lang/String;", jint(10)).toString(),
+             QString(10, u'b'));
+
+    // Neither end of the text is in the mirror, so it can't give the whole text
+    QJniObject extractedText = QJniObject::callStaticObjectMethod(
+            textMirrorClass, "getExtractedText",
+            "(II)Lorg/qtproject/qt/android/QtExtractedText;", jint(0), jint(0));
+    QVERIFY(!extractedText.isValid());
+}
+
+int main(int argc, char *argv[])
+{
+    // Read by the input context the first time it needs it
+    qputenv("QT_ANDROID_IME_TEXT_MIRROR", "1");
+    QGuiApplication app(argc, argv);
+    tst_AndroidInputContext tc;
+    QTEST_SET_MAIN_SOURCE_PATH
+    return QTest::qExec(&tc, argc, argv);
+}
+
+#include "tst_android_inputcontext.moc"
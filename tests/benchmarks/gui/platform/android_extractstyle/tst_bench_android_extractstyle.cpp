@@ -0,0 +1,79 @@
+// Copyright (C) 2024 The Qt Company Ltd.
+// SPDX-License-Identifier: LicenseRef-Qt-Commercial OR GPL-3.0-only WITH Qt-GPL-exception-1.0
+
+#include <jni.h>
+
+#include <QTest>
+#include <QElapsedTimer>
+#include <QFile>
+#include <QGuiApplication>
+#include <QTemporaryDir>
+#include <QtCore/qjnienvironment.h>
+#include <QtCore/qjniobject.h>
+
+#include <limits>
+
+using namespace Qt::StringLiterals;
+
+static const char extractStyleClass[] = "org/qtproject/qt/android/ExtractStyle";
+
+// Runs the extraction of the Android style for the theme of the test activity, including
+// writing its images. Fails when the fastest run takes longer than the threshold of the
+// row, which QT_ANDROID_EXTRACT_STYLE_MAX_MS overrides.
+class tst_bench_AndroidExtractStyle : public QObject
+{
+Q_OBJECT
+private slots:
+    void extraction_data();
+    void extraction();
+};
+
+void tst_bench_AndroidExtractStyle::extraction_data()
+{
+    QTest::addColumn<bool>("minimal");
+    QTest::addColumn<int>("maxMs");
+
+    QTest::newRow("minimal") << true << 1000;
+    QTest::newRow("full") << false << 5000;
+}
+
+void tst_bench_AndroidExtractStyle::extraction()
+{
+    QFETCH(bool, minimal);
+    QFETCH(int, maxMs);
+
+    bool ok = false;
+    const int maxMsOverride = qEnvironmentVariableIntValue("QT_ANDROID_EXTRACT_STYLE_MAX_MS", &ok);
+    if (ok)
+        maxMs = maxMsOverride;
+
+    QJniObject context = QNativeInterface::QAndroidApplication::context();
+    QVERIFY(context.isValid());
+    QTemporaryDir dir;
+    QVERIFY(dir.isValid());
+
+    QJniEnvironment env;
+    int run = 0;
+    qint64 fastestMs = std::numeric_limits<qint64>::max();
+    QBENCHMARK {
+        QElapsedTimer timer;
+        timer.start();
+        // A new directory for every run, the images already written are not written again
+        const QString path = dir.filePath(QString::number(run++));
+        QJniObject extractor(extractStyleClass, "(Landroid/content/Context;Ljava/lang/String;Z)V",
+                             context.object(), QJniObject::fromString(path).object<jstring>(),
+                             jboolean(minimal));
+        QVERIFY(extractor.isValid());
+        // The images are written behind the extraction
+        QVERIFY(QJniObject::callStaticMethod<jboolean>(extractStyleClass, "waitForImageWrites",
+                                                       "(J)Z", jlong(60000)));
+        fastestMs = qMin(fastestMs, timer.elapsed());
+    }
+    QVERIFY(!env.checkAndClearExceptions());
+    QVERIFY(QFile::exists(dir.filePath(u"0/style.json"_s)));
+    QVERIFY2(fastestMs <= maxMs,
+             qPrintable(u"The extraction took %1 ms, more than %2 ms"_s.arg(fastestMs).arg(maxMs)));
+}
+
+QTEST_MAIN(tst_bench_AndroidExtractStyle)
+#include "tst_bench_android_extractstyle.moc"